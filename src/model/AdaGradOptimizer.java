@@ -0,0 +1,40 @@
+package model;
+
+/**
+ * AdaGrad: each parameter is scaled by the root of the sum of its squared gradients, so parameters with big
+ * gradients (e.g. venues in dense areas) take smaller steps
+ * @author tndoan
+ *
+ */
+public class AdaGradOptimizer implements Optimizer {
+
+	private final int k;
+
+	private final double learningRate;
+
+	/**
+	 * sum of squared gradients; same layout as factor matrix
+	 */
+	private final double[] sumSqrGrad;
+
+	public AdaGradOptimizer(int rows, int k, double learningRate) {
+		this.k = k;
+		this.learningRate = learningRate;
+		this.sumSqrGrad = new double[rows * k];
+	}
+
+	@Override
+	public void toStep(int row, double[] grad, int off) {
+		int s = row * k;
+		for (int i = 0; i < k; i++) {
+			double g = grad[off + i];
+			sumSqrGrad[s + i] += g * g;
+			grad[off + i] = learningRate * g / (Math.sqrt(sumSqrGrad[s + i]) + EPSILON);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "adagrad";
+	}
+}
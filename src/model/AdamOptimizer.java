@@ -0,0 +1,62 @@
+package model;
+
+/**
+ * Adam: moving averages of gradients and of squared gradients with bias correction. Number of updates is counted
+ * per row since rows are updated at different rates in stochastic training
+ * @author tndoan
+ *
+ */
+public class AdamOptimizer implements Optimizer {
+
+	private final int k;
+
+	private final double learningRate;
+
+	private final double beta1;
+
+	private final double beta2;
+
+	/**
+	 * moving average of gradients; same layout as factor matrix
+	 */
+	private final double[] mean;
+
+	/**
+	 * moving average of squared gradients; same layout as factor matrix
+	 */
+	private final double[] meanSqr;
+
+	/**
+	 * number of updates of each row
+	 */
+	private final int[] steps;
+
+	public AdamOptimizer(int rows, int k, double learningRate, double beta1, double beta2) {
+		this.k = k;
+		this.learningRate = learningRate;
+		this.beta1 = beta1;
+		this.beta2 = beta2;
+		this.mean = new double[rows * k];
+		this.meanSqr = new double[rows * k];
+		this.steps = new int[rows];
+	}
+
+	@Override
+	public void toStep(int row, double[] grad, int off) {
+		int t = ++steps[row];
+		double c1 = 1.0 - Math.pow(beta1, t);
+		double c2 = 1.0 - Math.pow(beta2, t);
+		int s = row * k;
+		for (int i = 0; i < k; i++) {
+			double g = grad[off + i];
+			mean[s + i] = beta1 * mean[s + i] + (1.0 - beta1) * g;
+			meanSqr[s + i] = beta2 * meanSqr[s + i] + (1.0 - beta2) * g * g;
+			grad[off + i] = learningRate * (mean[s + i] / c1) / (Math.sqrt(meanSqr[s + i] / c2) + EPSILON);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "adam";
+	}
+}
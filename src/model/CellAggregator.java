@@ -0,0 +1,124 @@
+package model;
+
+import java.util.Arrays;
+
+import object.CheckinMatrix;
+import object.NeighborGraph;
+import object.ScoreCache;
+
+/**
+ * per-user aggregation of check-ins by group of the neighbor graph (a cell with the box neighborhood).
+ * All check-in venues of a cell share one list of candidate neighbors, so for one user the scores of the list are
+ * loaded once per cell and the coefficient of each neighbor is summed over all check-ins of the cell. The k-vector
+ * work (factor of neighbor times coefficient) is then done once per neighbor per cell instead of once per neighbor
+ * per check-in. Result is exact; only the order of summation changes.
+ * It is a scratch buffer, one per thread
+ * @author tndoan
+ *
+ */
+class CellAggregator {
+
+	/**
+	 * (group << 32 | position of check-in) of check-ins of current user, sorted
+	 */
+	private long[] keys = new long[16];
+
+	/**
+	 * run r of check-ins of the same group is keys[runBegin[r]..runBegin[r + 1])
+	 */
+	private int[] runBegin = new int[17];
+
+	private int numRuns;
+
+	/**
+	 * scores of venues in list of current group
+	 */
+	private double[] rhs = new double[16];
+
+	/**
+	 * coefficients of venues in list of current group
+	 */
+	private double[] coef = new double[16];
+
+	/**
+	 * sort check-ins of user by group of their venues
+	 * @param checkins	check-in matrix
+	 * @param graph		neighbor graph
+	 * @param uId		user index
+	 * @return			number of runs, i.e. number of distinct groups of check-in venues
+	 */
+	public int group(CheckinMatrix checkins, NeighborGraph graph, int uId) {
+		int b = checkins.userBegin(uId);
+		int n = checkins.userEnd(uId) - b;
+		if (keys.length < n) {
+			keys = new long[Math.max(n, 2 * keys.length)];
+			runBegin = new int[keys.length + 1];
+		}
+		for (int i = 0; i < n; i++)
+			keys[i] = ((long) graph.groupOf(checkins.getVenue(b + i)) << 32) | (b + i);
+		Arrays.sort(keys, 0, n);
+
+		numRuns = 0;
+		for (int i = 0; i < n; i++)
+			if (i == 0 || (keys[i] >>> 32) != (keys[i - 1] >>> 32))
+				runBegin[numRuns++] = i;
+		runBegin[numRuns] = n;
+		return numRuns;
+	}
+
+	/**
+	 *
+	 * @param r	run index
+	 * @return	group of check-in venues of run
+	 */
+	public int groupOfRun(int r) {
+		return (int) (keys[runBegin[r]] >>> 32);
+	}
+
+	public int runBegin(int r) {
+		return runBegin[r];
+	}
+
+	public int runEnd(int r) {
+		return runBegin[r + 1];
+	}
+
+	/**
+	 *
+	 * @param j	index between runBegin(r) and runEnd(r)
+	 * @return	position of check-in in CSR of check-in matrix
+	 */
+	public int entry(int j) {
+		return (int) keys[j];
+	}
+
+	/**
+	 * load scores of venues in list of group and set all coefficients to 0
+	 * @param graph		neighbor graph
+	 * @param g			group index
+	 * @param scores	score cache of current user
+	 * @return			array whose j-th element is score of graph.target(graph.groupBegin(g) + j)
+	 */
+	public double[] loadScores(NeighborGraph graph, int g, ScoreCache scores) {
+		int b = graph.groupBegin(g);
+		int size = graph.groupEnd(g) - b;
+		if (rhs.length < size) {
+			int len = Math.max(size, 2 * rhs.length);
+			rhs = new double[len];
+			coef = new double[len];
+		}
+		for (int j = 0; j < size; j++)
+			rhs[j] = scores.score(graph.target(b + j));
+		Arrays.fill(coef, 0, size, 0.0);
+		return rhs;
+	}
+
+	/**
+	 *
+	 * @return	coefficients of venues in list of current group; the same coefficient multiplies the factor of the venue
+	 * 			in the gradient of user and the factor of user in the gradient of the venue
+	 */
+	public double[] getCoef() {
+		return coef;
+	}
+}
@@ -0,0 +1,180 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import object.ScoreCache;
+
+/**
+ * value of log likelihood for the stop rule of training methods. Full evaluation scans all check-ins, so with a
+ * sample size the monitor estimates it from a stratified sample of users instead:
+ * users are sorted by number of check-ins and cut into strata of the same number of users; each stratum gets a
+ * share of the sample proportional to its check-ins (at least 2 users). Estimate is the sum over strata of
+ * N_h * mean of sampled users plus the exact venue regularization; its variance is
+ * sum of N_h^2 * (1 - n_h / N_h) * s_h^2 / n_h, which gives a 95% confidence interval.
+ * The sample is drawn once, so changes of the estimate between epochs are not disturbed by sampling noise.
+ * Full log likelihood is computed every fullEvery epochs and at the end of training. It is only reported: the stop
+ * rule compares a sampled estimate with the previous sampled estimate, never with a full value, since the bias of
+ * the fixed sample cancels only between estimates.
+ * Without sample size it computes full log likelihood every time, as before
+ * @author tndoan
+ *
+ */
+public class ConvergenceMonitor {
+
+	private static final int MAX_STRATA = 10;
+
+	private static final double Z_95 = 1.96;
+
+	private final Model m;
+
+	/**
+	 * full log likelihood is computed at evaluation 0, fullEvery, 2 * fullEvery, ...; 0 means only at the end
+	 */
+	private final int fullEvery;
+
+	/**
+	 * sampled users of stratum h; null if log likelihood is computed on all users
+	 */
+	private int[][] sample;
+
+	/**
+	 * number of users in stratum h
+	 */
+	private int[] stratumSize;
+
+	private final double numFriendPairs;
+
+	private int numEvaluations;
+
+	private double lastValue;
+
+	private double lastHalfWidth;
+
+	/**
+	 * full log likelihood of the last evaluation; NaN if it was not computed
+	 */
+	private double lastFull;
+
+	/**
+	 *
+	 * @param m				model
+	 * @param sampleSize	number of sampled users; 0 or at least number of users to always compute full log likelihood
+	 * @param fullEvery		compute full log likelihood every fullEvery evaluations; 0 for only at the end
+	 * @param rand			random generator of the sample
+	 */
+	public ConvergenceMonitor(Model m, int sampleSize, int fullEvery, Random rand) {
+		this.m = m;
+		this.fullEvery = fullEvery;
+		this.numFriendPairs = Loglikelihood.countFriendPairs(m);
+		int numUsers = m.users.length;
+		if (sampleSize > 0 && sampleSize < numUsers)
+			drawSample(sampleSize, rand);
+	}
+
+	/**
+	 * stratify users by number of check-ins and draw the sample of each stratum without replacement
+	 * @param sampleSize	number of sampled users
+	 * @param rand			random generator
+	 */
+	private void drawSample(int sampleSize, Random rand) {
+		int numUsers = m.users.length;
+		long[] keys = new long[numUsers];
+		double total = 0.0;
+		for (int uId = 0; uId < numUsers; uId++) {
+			int numCks = m.checkins.userEnd(uId) - m.checkins.userBegin(uId);
+			keys[uId] = ((long) numCks << 32) | uId;
+			total += numCks;
+		}
+		Arrays.sort(keys);
+
+		int numStrata = Math.max(1, Math.min(MAX_STRATA, sampleSize / 2));
+		sample = new int[numStrata][];
+		stratumSize = new int[numStrata];
+		for (int h = 0; h < numStrata; h++) {
+			int b = (int) ((long) numUsers * h / numStrata);
+			int e = (int) ((long) numUsers * (h + 1) / numStrata);
+			int[] members = new int[e - b];
+			double cks = 0.0;
+			for (int i = b; i < e; i++) {
+				members[i - b] = (int) keys[i];
+				cks += keys[i] >>> 32;
+			}
+
+			int n = (int) Math.round(sampleSize * (total > 0.0 ? cks / total : 1.0 / numStrata));
+			n = Math.min(members.length, Math.max(Math.min(2, members.length), n));
+			for (int i = 0; i < n; i++) { // partial Fisher-Yates shuffle
+				int j = i + rand.nextInt(members.length - i);
+				int t = members[i]; members[i] = members[j]; members[j] = t;
+			}
+			sample[h] = Arrays.copyOf(members, n);
+			stratumSize[h] = members.length;
+		}
+	}
+
+	/**
+	 * evaluate the model once, e.g. after an epoch
+	 * @return	value for the stop rule: sampled estimate of log likelihood, or full log likelihood without sample.
+	 * 			With a sample, the full value of fullEvery evaluations is only reported (see describe) so the stop rule
+	 * 			always compares estimates of the same sample, whose bias cancels
+	 */
+	public double evaluate() {
+		boolean full = sample == null || (fullEvery > 0 && numEvaluations % fullEvery == 0);
+		lastFull = full ? m.calculateParallelLLH() : Double.NaN;
+		numEvaluations++;
+
+		if (sample == null) {
+			lastValue = lastFull;
+			lastHalfWidth = 0.0;
+			return lastValue;
+		}
+
+		double estimate = Loglikelihood.calculateVenueRegularization(m);
+		double variance = 0.0;
+		for (int h = 0; h < sample.length; h++) {
+			int n = sample[h].length;
+			if (n == 0)
+				continue;
+			double[] values = Arrays.stream(sample[h]).parallel().mapToDouble(uId -> {
+				ScoreCache scores = m.venueScores.get();
+				return Loglikelihood.calculateUserLLH(uId, m, scores, numFriendPairs);
+			}).toArray();
+			double mean = Arrays.stream(values).sum() / n;
+			double ss = 0.0;
+			for (double x : values)
+				ss += (x - mean) * (x - mean);
+			double N = stratumSize[h];
+			estimate += N * mean;
+			if (n > 1)
+				variance += N * N * (1.0 - n / N) * ss / (n - 1) / n;
+		}
+		lastValue = estimate;
+		lastHalfWidth = Z_95 * Math.sqrt(variance);
+		return lastValue;
+	}
+
+	/**
+	 *
+	 * @return	description of the last evaluation
+	 */
+	public String describe() {
+		if (sample == null)
+			return String.valueOf(lastValue);
+		String s = lastValue + " +- " + lastHalfWidth + " (sampled)";
+		if (!Double.isNaN(lastFull))
+			s += " full:" + lastFull;
+		return s;
+	}
+
+	/**
+	 * compute full log likelihood at the end of training if the last evaluation did not
+	 * @return	full log likelihood of the model
+	 */
+	public double finish() {
+		if (Double.isNaN(lastFull)) {
+			lastFull = m.calculateParallelLLH();
+			System.out.println("final llh:" + lastFull);
+		}
+		return lastFull;
+	}
+}
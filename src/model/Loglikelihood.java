@@ -1,227 +1,191 @@
 package model;
 
 import java.lang.reflect.Array;
-import java.util.Collections;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.Set;
-import java.util.ArrayList;
-
-import object.AreaObject;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import object.AreaFactorCache;
+import object.CheckinMatrix;
+import object.FactorMatrix;
+import object.NeighborGraph;
+import object.ScoreCache;
 import object.UserObject;
 import object.VenueObject;
 import utils.Function;
 
 public class Loglikelihood {
-	
+
 	/**
 	 * calculate the log likelihood of model
-	 * @param userMap		map of user id and the actual object
-	 * @param venueMap		map of venue id and the actual object
-	 * @param areaMap		map of area id and the actual object
-	 * @param steepness		steepness of logistic function
-	 * @param k				number of latent feature
-	 * @param params		values of regularizers
-	 * @param isFriend		if our model takes advantage of friendship network
-	 * @return				log likelihood of model
+	 * @param m		model which contains users, venues, areas, their factors and all parameters
+	 * @return		log likelihood of model
 	 */
-	public static double calculateLLH(HashMap<String, UserObject> userMap, HashMap<String, VenueObject> venueMap, 
-			HashMap<String, AreaObject> areaMap, double steepness, int k, Parameters params, boolean isFriend){
+	public static double calculateLLH(Model m){
+		UserObject[] users = m.users;
+		VenueObject[] venues = m.venues;
+		AreaFactorCache areaFactors = m.areaFactors;
+		FactorMatrix userFactors = m.userFactors;
+		FactorMatrix venueFactors = m.venueFactors;
+		NeighborGraph neighbors = m.neighbors;
+		CheckinMatrix checkins = m.checkins;
+		double steepness = m.steepness;
+		Parameters params = m.params;
 		double llh = 0.0;
-		
-		HashMap<String, double[]> areaFactorCache = new HashMap<>();
-		// user chooses area
-		for (String userId : userMap.keySet()) {
-			UserObject uo = userMap.get(userId);
-			double[] uFactor = uo.getFactors();
-			
-			for (String venueId : venueMap.keySet()) {
-				VenueObject vo = venueMap.get(venueId);
-				double w = uo.retrieveNumCks(venueId);
-				
-				String areaId = vo.getAreaId();
-				double[] aFactors = areaFactorCache.get(areaId);
-				if (aFactors == null) {
-					AreaObject ao = areaMap.get(areaId);
-					Set<String> lOfVIds = ao.getSetOfVenueIds();
-					aFactors = new double[k];
-
-					for (String vId : lOfVIds) {
-						VenueObject vOfAreaId = venueMap.get(vId);
-						aFactors = Function.plus(aFactors, vOfAreaId.getFactors());
-					}
-
-					areaFactorCache.put(areaId, aFactors);
-				}
 
-				llh += w * Math.log(Function.innerProduct(uFactor, aFactors));
+		// user chooses area. Only observed check-ins are visited since the other pairs have zero weight
+		for (UserObject uo : users) {
+			int uId = uo.getIndex();
+			double[] uFactor = userFactors.getRow(uId);
+
+			for (int i = checkins.userBegin(uId); i < checkins.userEnd(uId); i++) {
+				double w = checkins.getUserCks(i);
+
+				llh += w * Math.log(areaFactors.dotArea(venues[checkins.getVenue(i)].getAreaId(), uFactor));
 			}
 		}
 
 		// venue win over their neighbors
-		for (String userId : userMap.keySet()) {
-			UserObject uo = userMap.get(userId);
-			double[] uFactor = uo.getFactors();
-			Set<String> lOfVenues = uo.getAllVenues();
-			
-			for (String vId : lOfVenues) {
-				VenueObject vo = venueMap.get(vId);
-				double w = uo.retrieveNumCks(vId);
-
-				Set<String> neighbors = vo.getNeighbors();
-				double lhs = Function.innerProduct(uFactor, vo.getFactors());
+		ScoreCache scores = m.venueScores.get();
+		for (UserObject uo : users) {
+			double[] uFactor = userFactors.getRow(uo.getIndex());
+			int uId = uo.getIndex();
+			scores.reset(uFactor);
+
+			for (int i = checkins.userBegin(uId); i < checkins.userEnd(uId); i++) {
+				int vId = checkins.getVenue(i);
+				double w = checkins.getUserCks(i);
+
+				double lhs = scores.score(vId);
 
 				double subLLH = 0.0;
-				for (String nId : neighbors) {
-					VenueObject no = venueMap.get(nId);
-					double rhs = Function.innerProduct(uFactor, no.getFactors());
+				for (int pos = neighbors.begin(vId); pos < neighbors.end(vId); pos++) {
+					int nId = neighbors.target(pos);
+					if (nId == vId)
+						continue;
+					double rhs = scores.score(nId);
 
 					double diff = lhs - rhs;
-					diff = Math.log(Function.logisticFunc(steepness, diff));
+					diff = Function.logLogisticFunc(steepness, diff);
 					subLLH += diff;
 				}
-				
+
 				llh += w * subLLH;
 			}
 		}
 
 		// regularization
-		for (UserObject uo : userMap.values())
-			llh -= params.getLambda_u() * Function.sqrNorm(uo.getFactors());
-		for (VenueObject vo : venueMap.values())
-			llh -= params.getLambda_v() * Function.sqrNorm(vo.getFactors());
+		for (int uId = 0; uId < users.length; uId++)
+			llh -= params.getLambda_u() * userFactors.sqrNormRow(uId);
+		for (int vId = 0; vId < venues.length; vId++)
+			llh -= params.getLambda_v() * venueFactors.sqrNormRow(vId);
 
 		// friendship regularization
-		if (isFriend) {
+		if (m.isFriend) {
 			double reg = 0.0;
 			double numPairs = 0.0;
-			for (UserObject uo : userMap.values()) {
-				ArrayList<String> lOfFriends = uo.getListOfFriends();
+			for (UserObject uo : users) {
+				int[] lOfFriends = uo.getListOfFriends();
 				if (lOfFriends == null)
 					continue;
-				double[] uFactor = uo.getFactors();
-				for (String f : lOfFriends) {
-					UserObject fObj = userMap.get(f);
-					double[] fFactor = fObj.getFactors();
-					double[] uMinusF = Function.minus(uFactor, fFactor);
-					reg += Function.sqrNorm(uMinusF);
+				for (int f : lOfFriends) {
+					reg += userFactors.sqrDistanceRows(uo.getIndex(), f);
 					numPairs += 1.0;
 				}
 			}
-			llh -= params.getLambda_f() * reg / numPairs;
+			if (numPairs > 0.0)
+				llh -= params.getLambda_f() * reg / numPairs;
 		}
-		
+
 		return llh;
 	}
 
 	/**
 	 * Replace all loops by parallel thread. It should be faster
-	 * @param userMap		map of user objects
-	 * @param venueMap		map of venue objects
-	 * @param areaMap		map of area objects
-	 * @param steepness		steepness of logistic function
-	 * @param k				# of latent features
-	 * @param params		value of regularization
-	 * @param isFriend		if our model uses friendship network or not
-	 * @return				log likelihood
+	 * @param m		model which contains users, venues, areas, their factors and all parameters
+	 * @return		log likelihood
 	 */
-	public static double calculateParallelLLH(HashMap<String, UserObject> userMap, HashMap<String, VenueObject> venueMap,
-									  HashMap<String, AreaObject> areaMap, double steepness, int k, Parameters params,
-											  boolean isFriend){
-		Map<String, double[]> areaFactorCache = Collections.synchronizedMap(new HashMap<>());
-
-		// user chooses area
-		double llh = userMap.keySet().parallelStream().mapToDouble(userId -> {
-			UserObject uo = userMap.get(userId);
-			double[] uFactor = uo.getFactors();
-
-			Set<String> allVIds = venueMap.keySet();
-			double l = allVIds.parallelStream().mapToDouble( venueId ->  {
-				VenueObject vo = venueMap.get(venueId);
-				double w = uo.retrieveNumCks(venueId);
-
-				String areaId = vo.getAreaId();
-				double[] aFactors = areaFactorCache.get(areaId);
-				if (aFactors == null) {
-					AreaObject ao = areaMap.get(areaId);
-					Set<String> lOfVIds = ao.getSetOfVenueIds();
-					aFactors = new double[k];
-
-					for (String vId : lOfVIds) {
-						VenueObject vOfAreaId = venueMap.get(vId);
-						aFactors = Function.plus(aFactors, vOfAreaId.getFactors());
-					}
-
-					areaFactorCache.put(areaId, aFactors);
-				}
-
-				return w * Math.log(Function.innerProduct(uFactor, aFactors));
-			}).sum();
+	public static double calculateParallelLLH(Model m){
+		UserObject[] users = m.users;
+		VenueObject[] venues = m.venues;
+		AreaFactorCache areaFactors = m.areaFactors;
+		FactorMatrix userFactors = m.userFactors;
+		FactorMatrix venueFactors = m.venueFactors;
+		NeighborGraph neighbors = m.neighbors;
+		CheckinMatrix checkins = m.checkins;
+		double steepness = m.steepness;
+		Parameters params = m.params;
+
+		// user chooses area. Only observed check-ins are visited since the other pairs have zero weight
+		double llh = Arrays.stream(users).parallel().mapToDouble(uo -> {
+			int uId = uo.getIndex();
+			double[] uFactor = userFactors.getRow(uId);
+
+			double l = 0.0;
+			for (int i = checkins.userBegin(uId); i < checkins.userEnd(uId); i++) {
+				double w = checkins.getUserCks(i);
+
+				l += w * Math.log(areaFactors.dotArea(venues[checkins.getVenue(i)].getAreaId(), uFactor));
+			}
 
 			return l;
 		}).sum();
 
-		// venue win over their neighbors
-		llh += userMap.keySet().parallelStream().mapToDouble(userId -> {
-			UserObject uo = userMap.get(userId);
-			double[] uFactor = uo.getFactors();
-			Set<String> lOfVenues = uo.getAllVenues();
+		// venue win over their neighbors. Check-ins of one user are in one thread so they share its score cache
+		llh += Arrays.stream(users).parallel().mapToDouble(uo -> {
+			double[] uFactor = userFactors.getRow(uo.getIndex());
+			int uId = uo.getIndex();
+			ScoreCache scores = m.venueScores.get();
+			scores.reset(uFactor);
 
-			double l = lOfVenues.parallelStream().mapToDouble(vId ->{
-				VenueObject vo = venueMap.get(vId);
-				double w = uo.retrieveNumCks(vId);
+			double l = 0.0;
+			for (int i = checkins.userBegin(uId); i < checkins.userEnd(uId); i++) {
+				int vId = checkins.getVenue(i);
+				double w = checkins.getUserCks(i);
 
-				Set<String> neighbors = vo.getNeighbors();
-				double lhs = Function.innerProduct(uFactor, vo.getFactors());
+				double lhs = scores.score(vId);
 
-				double subLLH = neighbors.parallelStream().mapToDouble(nId -> {
-					VenueObject no = venueMap.get(nId);
-					double rhs = Function.innerProduct(uFactor, no.getFactors());
+				double subLLH = 0.0;
+				for (int pos = neighbors.begin(vId); pos < neighbors.end(vId); pos++) {
+					int nId = neighbors.target(pos);
+					if (nId == vId)
+						continue;
+					double rhs = scores.score(nId);
 
 					double diff = lhs - rhs;
-					diff = Math.log(Function.logisticFunc(steepness, diff));
-					return diff;
-				}).sum();
+					diff = Function.logLogisticFunc(steepness, diff);
+					subLLH += diff;
+				}
 
-				return w * subLLH;
-			}).sum();
+				l += w * subLLH;
+			}
 
 			return l;
 		}).sum();
 
 		// regularization
-		llh -= userMap.values().parallelStream()
-				.mapToDouble(uo -> params.getLambda_u() * Function.sqrNorm(uo.getFactors()))
+		llh -= IntStream.range(0, users.length).parallel()
+				.mapToDouble(uId -> params.getLambda_u() * userFactors.sqrNormRow(uId))
 				.sum();
-		llh -= venueMap.values().parallelStream()
-				.mapToDouble(vo -> params.getLambda_v() * Function.sqrNorm(vo.getFactors()))
+		llh -= IntStream.range(0, venues.length).parallel()
+				.mapToDouble(vId -> params.getLambda_v() * venueFactors.sqrNormRow(vId))
 				.sum();
 
 		// friendship network
-		if (isFriend) {
-			double reg = userMap.values().parallelStream().mapToDouble(uo -> {
-				ArrayList<String> lOfFriends = uo.getListOfFriends();
+		if (m.isFriend) {
+			double reg = Arrays.stream(users).parallel().mapToDouble(uo -> {
+				int[] lOfFriends = uo.getListOfFriends();
 				if (lOfFriends == null)
 					return 0.0;
-				double[] uFactor = uo.getFactors();
-				return lOfFriends.parallelStream().mapToDouble(f -> {
-					UserObject fObj = userMap.get(f);
-					if (fObj == null)
-						return 0.0;
-					double[] fFactor = fObj.getFactors();
-					return Function.sqrNorm(Function.minus(uFactor, fFactor));
-				}).sum();
+				double r = 0.0;
+				for (int f : lOfFriends)
+					r += userFactors.sqrDistanceRows(uo.getIndex(), f);
+				return r;
 			}).sum();
-			double count = userMap.values().parallelStream().mapToDouble(uo -> {
-				ArrayList<String> lOfFriends = uo.getListOfFriends();
+			double count = Arrays.stream(users).parallel().mapToDouble(uo -> {
+				int[] lOfFriends = uo.getListOfFriends();
 				if (lOfFriends == null)
 					return 0.0;
-				double counter = 0.0;
-				for (String f : lOfFriends) {
-					if (userMap.get(f) != null)
-						counter += 1.0;
-				}
-				return counter;
+				return lOfFriends.length;
 			}).sum();
 
 			if (count > 0.0)
@@ -231,61 +195,116 @@ public class Loglikelihood {
 		return llh;
 	}
 
+	/**
+	 * terms of log likelihood which belong to one user: its check-ins, its regularization and its part of the
+	 * friendship regularization. Sum of it over all users plus calculateVenueRegularization is the log likelihood
+	 * @param uId				user index
+	 * @param m					model which contains users, venues, areas, their factors and all parameters
+	 * @param scores			score cache of the calling thread
+	 * @param numFriendPairs	number of (user, friend) pairs in the model; see countFriendPairs
+	 * @return					log likelihood of the user
+	 */
+	public static double calculateUserLLH(int uId, Model m, ScoreCache scores, double numFriendPairs) {
+		FactorMatrix userFactors = m.userFactors;
+		CheckinMatrix checkins = m.checkins;
+		NeighborGraph neighbors = m.neighbors;
+		double[] uFactor = userFactors.getRow(uId);
+		scores.reset(uFactor);
+
+		double l = 0.0;
+		for (int i = checkins.userBegin(uId); i < checkins.userEnd(uId); i++) {
+			int vId = checkins.getVenue(i);
+			double w = checkins.getUserCks(i);
+
+			double subLLH = Math.log(m.areaFactors.dotArea(m.venues[vId].getAreaId(), uFactor));
+			double lhs = scores.score(vId);
+			for (int pos = neighbors.begin(vId); pos < neighbors.end(vId); pos++) {
+				int nId = neighbors.target(pos);
+				if (nId == vId)
+					continue;
+				subLLH += Function.logLogisticFunc(m.steepness, lhs - scores.score(nId));
+			}
+
+			l += w * subLLH;
+		}
+
+		l -= m.params.getLambda_u() * Function.sqrNorm(uFactor);
+
+		int[] lOfFriends = m.users[uId].getListOfFriends();
+		if (m.isFriend && lOfFriends != null && numFriendPairs > 0.0) {
+			double reg = 0.0;
+			for (int f : lOfFriends)
+				reg += userFactors.sqrDistanceRows(uId, f);
+			l -= m.params.getLambda_f() * reg / numFriendPairs;
+		}
+
+		return l;
+	}
+
+	/**
+	 *
+	 * @param m		model
+	 * @return		regularization of venue factors, which is not included in calculateUserLLH
+	 */
+	public static double calculateVenueRegularization(Model m) {
+		return - IntStream.range(0, m.venues.length).parallel()
+				.mapToDouble(vId -> m.params.getLambda_v() * m.venueFactors.sqrNormRow(vId))
+				.sum();
+	}
+
+	/**
+	 *
+	 * @param m		model
+	 * @return		number of (user, friend) pairs
+	 */
+	public static double countFriendPairs(Model m) {
+		double count = 0.0;
+		for (UserObject uo : m.users)
+			if (uo.getListOfFriends() != null)
+				count += uo.getListOfFriends().length;
+		return count;
+	}
+
 	/**
 	 * calculate log-likelihood for specific pair of user and venue
-	 * @param uId			user id in user-venue pair
-	 * @param vId			venue id in user-venue pair
-	 * @param userMap		map of user-id, user-object
-	 * @param venueMap		map of venue id, venue object
-	 * @param areaMap		map of area id, area object
-	 * @param steepness		steepness of logistic function
-	 * @param k				number of latent features
-	 * @param params		all parameter of regularization
-	 * @param isFriend		if our model uses friendship network
+	 * @param uId			user index in user-venue pair
+	 * @param vId			venue index in user-venue pair
+	 * @param m				model which contains users, venues, areas, their factors and all parameters
 	 * @return				log likelihood of uId and vId
 	 */
-	public static double calculateLLH(String uId, String vId, HashMap<String, UserObject> userMap,
-									  HashMap<String, VenueObject> venueMap, HashMap<String, AreaObject> areaMap,
-									  double steepness, int k, Parameters params, boolean isFriend) {
-
-		UserObject uo = userMap.get(uId);
-		VenueObject vo = venueMap.get(vId);
-		double[] uFactor = uo.getFactors();
-		double[] vFactor = vo.getFactors();
-		String aId = vo.getAreaId();
-		Set<String> setOfVenueIds = areaMap.get(aId).getSetOfVenueIds();
-
-		double[] featuresOfArea = new double[k];
-		for (String v : setOfVenueIds) {
-			double[] latentFeatures = venueMap.get(v).getFactors();
-			featuresOfArea = Function.plus(latentFeatures, featuresOfArea);
-		}
-		double result = Math.log(Function.innerProduct(featuresOfArea, uFactor));
-
-		Set<String> allNeighborIds = vo.getNeighbors();
-		double lhs = Function.innerProduct(uFactor, vFactor);
-		for (String n : allNeighborIds) {
-			double[] nFactors = venueMap.get(n).getFactors();
-			double rhs = Function.innerProduct(uFactor, nFactors);
-			result += Math.log(Function.logisticFunc(steepness, lhs - rhs));
+	public static double calculateLLH(int uId, int vId, Model m) {
+		FactorMatrix userFactors = m.userFactors;
+		FactorMatrix venueFactors = m.venueFactors;
+		Parameters params = m.params;
+
+		UserObject uo = m.users[uId];
+		VenueObject vo = m.venues[vId];
+		double[] uFactor = userFactors.getRow(uId);
+		double result = Math.log(m.areaFactors.dotArea(vo.getAreaId(), uFactor));
+
+		NeighborGraph neighbors = m.neighbors;
+		double lhs = venueFactors.dotRow(vId, uFactor);
+		for (int pos = neighbors.begin(vId); pos < neighbors.end(vId); pos++) {
+			int n = neighbors.target(pos);
+			if (n == vId)
+				continue;
+			double rhs = venueFactors.dotRow(n, uFactor);
+			result += Function.logLogisticFunc(m.steepness, lhs - rhs);
 		}
 
-		double numCks = uo.retrieveNumCks(vId);
+		double numCks = m.checkins.retrieveNumCks(uId, vId);
 
 		// calculate regularization
-		double r = params.getLambda_u() * Function.sqrNorm(uFactor) + params.getLambda_v() * Function.sqrNorm(vFactor);
+		double r = params.getLambda_u() * Function.sqrNorm(uFactor) + params.getLambda_v() * venueFactors.sqrNormRow(vId);
 		result = result * numCks - r; // minus since we want to minimize r
 
 		// friendship network
-		if (isFriend) {
-			ArrayList<String> lOfFriends = uo.getListOfFriends();
-			if (lOfFriends != null) {
+		if (m.isFriend) {
+			int[] lOfFriends = uo.getListOfFriends();
+			if (lOfFriends != null && lOfFriends.length > 0) {
 				double reg = 0.0; double count = 0.0;
-				for (String f : lOfFriends) {
-					UserObject fObj = userMap.get(f);
-					double[] fFactor = fObj.getFactors();
-					double[] uMinusF = Function.minus(uFactor, fFactor);
-					reg += Function.sqrNorm(uMinusF);
+				for (int f : lOfFriends) {
+					reg += userFactors.sqrDistanceRows(uId, f);
 					count += 1.0;
 				}
 				result -= params.getLambda_f() * reg / count;
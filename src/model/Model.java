@@ -3,21 +3,61 @@ package model;
 import java.io.IOException;
 import java.lang.reflect.Array;
 import java.util.*;
-
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.apache.commons.math3.exception.TooManyEvaluationsException;
+import org.apache.commons.math3.optim.InitialGuess;
+import org.apache.commons.math3.optim.MaxEval;
+import org.apache.commons.math3.optim.MaxIter;
+import org.apache.commons.math3.optim.SimpleValueChecker;
+import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
+import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
+import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunctionGradient;
+import org.apache.commons.math3.optim.nonlinear.scalar.gradient.NonLinearConjugateGradientOptimizer;
+
+import object.AreaFactorCache;
 import object.AreaObject;
+import object.CheckinMatrix;
+import object.FactorMatrix;
+import object.NeighborGraph;
+import object.NeighborSample;
+import object.NeighborSampler;
 import object.PointObject;
+import object.ScoreCache;
 import object.UserObject;
 import object.VenueObject;
 import utils.Function;
+import utils.IdDictionary;
 import utils.ReadFile;
 import utils.Utils;
 
 public class Model {
 
 	/**
-	 * key is venue id, value is venue object corresponding to the venue id
+	 * number of check-in pairs that a thread takes each time in parallel stochastic gradient descend
+	 */
+	public static final int DEFAULT_SHARD_SIZE = 1024;
+
+	/**
+	 * maximum number of tasks of the full-batch gradient pass; each task has its own buffer of venue gradients
 	 */
-	protected HashMap<String, VenueObject> venueMap;
+	public static final int MAX_FUSED_TASKS = 8;
+
+	/**
+	 * venue object of each venue index
+	 */
+	protected VenueObject[] venues;
+
+	/**
+	 * dictionary of venue id and venue index
+	 */
+	protected IdDictionary venueDict;
 
 	/**
 	 *
@@ -25,9 +65,19 @@ public class Model {
 	protected boolean isFriend;
 
 	/**
-	 * key is user id, value is user object corresponding to user id
+	 * user object of each user index
 	 */
-	protected HashMap<String, UserObject> userMap;
+	protected UserObject[] users;
+
+	/**
+	 * friendOf[u] is users who have u in their list of friends; null without friendship
+	 */
+	protected int[][] friendOf;
+
+	/**
+	 * dictionary of user id and user index
+	 */
+	protected IdDictionary userDict;
 
 	/**
 	 * store regularizer values
@@ -44,9 +94,79 @@ public class Model {
 	protected double steepness; // steepness of the curve
 	
 	/**
-	 * key is the area id(same as venue id), value is area object 
+	 * area object of each area index
+	 */
+	protected AreaObject[] areas;
+
+	/**
+	 * update rule of training, see Optimizer
+	 */
+	protected String optimizerName = "sgd";
+
+	/**
+	 * learning rate of update rule
+	 */
+	protected double learningRate = 0.000001;
+
+	/**
+	 * number of check-ins between users and venues
+	 */
+	protected CheckinMatrix checkins;
+
+	/**
+	 * neighbor relation of venues
+	 */
+	protected NeighborGraph neighbors;
+
+	/**
+	 * latent factors of users, row i is factor of user i
+	 */
+	protected FactorMatrix userFactors;
+
+	/**
+	 * latent factors of venues, row i is factor of venue i
+	 */
+	protected FactorMatrix venueFactors;
+
+	/**
+	 * sum of venue factors of each area. Venue factors are changed through it
+	 */
+	protected AreaFactorCache areaFactors;
+
+	/**
+	 * scores of venues for one user, one cache per thread
+	 */
+	protected ThreadLocal<ScoreCache> venueScores;
+
+	/**
+	 * sampler of neighbors in gradients of check-in pairs; null to use all neighbors
+	 */
+	protected NeighborSampler sampler;
+
+	/**
+	 * buffer of neighbors of one gradient step, one buffer per thread
+	 */
+	protected ThreadLocal<NeighborSample> samples;
+
+	/**
+	 * check-ins of one user grouped by cell, one buffer per thread
+	 */
+	protected ThreadLocal<CellAggregator> aggregators;
+
+	/**
+	 * vectors of one gradient step of a check-in pair, one buffer per thread
+	 */
+	protected ThreadLocal<StepBuffer> steps;
+
+	/**
+	 * number of users sampled to estimate log likelihood in training; 0 to compute it on all users
+	 */
+	protected int monitorSampleSize = 0;
+
+	/**
+	 * full log likelihood is computed every fullEvalEvery epochs when it is estimated from a sample
 	 */
-	protected HashMap<String, AreaObject> areaMap;
+	protected int fullEvalEvery = 0;
 
 	public Model(String uFile, String venueLocFile, String cksFile, String fFile, int k, double scale,
 				 boolean isFriend, double steepness) {
@@ -56,109 +176,183 @@ public class Model {
 
 	public Model(String uFile, String venueLocFile, String cksFile, String fFile, int k, double scale,
 				 boolean isFriend, double steepness, Parameters params) {
+		this(uFile, venueLocFile, cksFile, fFile, k, scale, 0, isFriend, steepness, params);
+	}
+
+	/**
+	 *
+	 * @param scale				size of grid cells in degree; used if maxVenuesPerArea is 0
+	 * @param maxVenuesPerArea	if it is positive, areas are leaves of a quadtree which have at most this number of
+	 * 							venues instead of grid cells (see Utils.createNeighborsQuadtree)
+	 */
+	public Model(String uFile, String venueLocFile, String cksFile, String fFile, int k, double scale,
+				 int maxVenuesPerArea, boolean isFriend, double steepness, Parameters params) {
+		this(uFile, venueLocFile, cksFile, fFile, k,
+				maxVenuesPerArea > 0 ? Neighborhood.quadtree(maxVenuesPerArea) : Neighborhood.box(scale),
+				isFriend, steepness, params);
+	}
+
+	/**
+	 *
+	 * @param neighborhood	how areas and neighbors of venues are built
+	 */
+	public Model(String uFile, String venueLocFile, String cksFile, String fFile, int k, Neighborhood neighborhood,
+				 boolean isFriend, double steepness, Parameters params) {
 		this.isFriend = isFriend;
 		this.params = params;
 		this.k = k;
 		this.steepness = steepness;
 		
 		// initialize 
-		venueMap = new HashMap<>();
-		userMap = new HashMap<>();
+		venueDict = new IdDictionary();
+		userDict = new IdDictionary();
 
 		//read data from files
 		HashMap<String, String> vInfo = ReadFile.readLocation(venueLocFile);
-		HashMap<String, HashMap<String, Integer>> cksMap = ReadFile.readNumCksFile(cksFile);
 
-		HashMap<String, ArrayList<String>> userOfVenueMap = Utils.collectUsers(cksMap);
+		// index venues and users. From now, the model only works on index
+		for (String vId : vInfo.keySet())
+			venueDict.add(vId);
+		checkins = ReadFile.readNumCksFile(cksFile, userDict, venueDict);
+
 		HashMap<String, ArrayList<String>> friendInfoMap = null;
 		if (isFriend)
 			friendInfoMap = ReadFile.readFriendship(fFile);
 
-		// make venue object
-		HashMap<String, PointObject> vLocInfo = new HashMap<>();
-		for (String vId : vInfo.keySet()) {
-			PointObject p = new PointObject(vInfo.get(vId));
-			vLocInfo.put(vId, p);
-		}
-		
-		HashMap<String, Integer> countMap = Utils.countCks(cksMap);
+		// location of venues
+		PointObject[] vLocInfo = new PointObject[venueDict.size()];
+		IntStream.range(0, vLocInfo.length).parallel()
+				.forEach(vId -> vLocInfo[vId] = new PointObject(vInfo.get(venueDict.getId(vId))));
 
-		areaMap = new HashMap<>();
-		venueMap = Utils.createNeighborsBox(vLocInfo, areaMap, countMap, userOfVenueMap, scale, k);
+		userFactors = new FactorMatrix(userDict.size(), k);
+		venueFactors = new FactorMatrix(venueDict.size(), k);
 
 		// make user object
-		Set<String> uSet = cksMap.keySet();
-		for (String uId : uSet) {
-			HashMap<String, Integer> checkinMap = cksMap.get(uId);
-			ArrayList<String> lOfFriends = null;
+		users = new UserObject[userDict.size()];
+		for (int uId = 0; uId < users.length; uId++) {
+			String userId = userDict.getId(uId);
+			int[] lOfFriends = null;
 			if (isFriend)
-				lOfFriends = friendInfoMap.get(uId);
-			UserObject u = new UserObject(uId, checkinMap, lOfFriends, k);
-			userMap.put(uId, u);
+				lOfFriends = userDict.toIndices(friendInfoMap.get(userId));
+			users[uId] = new UserObject(userId, uId, lOfFriends, userFactors);
 		}
+		if (isFriend)
+			friendOf = invertFriends(users);
 
-		System.out.println("# of users:" + userMap.keySet().size());
-		System.out.println("# of venues:" + venueMap.keySet().size());
-		System.out.println("# of areas:" + areaMap.keySet().size());
+		// make venue object
+		ArrayList<AreaObject> areaList = new ArrayList<>();
+		neighbors = neighborhood.build(vLocInfo, checkins, areaList);
+		areas = areaList.toArray(new AreaObject[areaList.size()]);
+		areaFactors = new AreaFactorCache(venueFactors, areas);
+		venues = Utils.createVenues(vLocInfo, venueDict, areas, checkins, areaFactors);
+		venueScores = ThreadLocal.withInitial(() -> new ScoreCache(venueFactors));
+		samples = ThreadLocal.withInitial(NeighborSample::new);
+		aggregators = ThreadLocal.withInitial(CellAggregator::new);
+		steps = ThreadLocal.withInitial(() -> new StepBuffer(k));
+
+		System.out.println("# of users:" + users.length);
+		System.out.println("# of venues:" + venues.length);
+		System.out.println("# of areas:" + areas.length);
+		System.out.println("vector kernels:" + Function.getKernels().getName());
 		System.gc();
 	}
 
+	/**
+	 *
+	 * @param users	user object of each user index
+	 * @return		users who have u in their list of friends, for each user u
+	 */
+	private static int[][] invertFriends(UserObject[] users) {
+		int[] count = new int[users.length];
+		for (UserObject uo : users)
+			if (uo.getListOfFriends() != null)
+				for (int f : uo.getListOfFriends())
+					count[f]++;
+		int[][] result = new int[users.length][];
+		for (int uId = 0; uId < users.length; uId++)
+			result[uId] = new int[count[uId]];
+		Arrays.fill(count, 0);
+		for (UserObject uo : users)
+			if (uo.getListOfFriends() != null)
+				for (int f : uo.getListOfFriends())
+					result[f][count[f]++] = uo.getIndex();
+		return result;
+	}
+
+	/**
+	 * choose update rule of all gradient based training methods except learnParametersCG
+	 * @param name			"sgd", "adagrad", "rmsprop" or "adam"
+	 * @param learningRate	learning rate
+	 */
+	public void setOptimizer(String name, double learningRate) {
+		Optimizer.create(name, 0, k, learningRate); // check name
+		this.optimizerName = name;
+		this.learningRate = learningRate;
+	}
+
+	/**
+	 * estimate log likelihood for the stop rule of stochastic and mini-batch training methods from a stratified
+	 * sample of users instead of computing it on all check-ins after each epoch (see ConvergenceMonitor).
+	 * learnParameters does not need it since its gradient pass gives log likelihood
+	 * @param sampleSize	number of sampled users; 0 to compute full log likelihood after each epoch
+	 * @param fullEvery		also compute full log likelihood every fullEvery epochs; 0 for only at the end
+	 */
+	public void setConvergenceSampling(int sampleSize, int fullEvery) {
+		this.monitorSampleSize = sampleSize;
+		this.fullEvalEvery = fullEvery;
+	}
+
+	/**
+	 *
+	 * @return	monitor of log likelihood for one run of a training method
+	 */
+	private ConvergenceMonitor newMonitor() {
+		return new ConvergenceMonitor(this, monitorSampleSize, fullEvalEvery, new Random());
+	}
+
 	/**
 	 * Learning latent factors of users and venues inside the model via stochastic gradient descent
 	 */
 	public void learnParameters() {
-		Set<String> allUIds = userMap.keySet();
-		Set<String> allVIds = venueMap.keySet();
 		boolean conv = false;
 		long sTime = System.currentTimeMillis();
-		double prevLLH = calculateParallelLLH();
-		double learningRate = -0.000001;
-		int counter = 0;
+		double prevLLH = 0.0;
+		Optimizer uOpt = Optimizer.create(optimizerName, users.length, k, learningRate);
+		Optimizer vOpt = Optimizer.create(optimizerName, venues.length, k, learningRate);
+		int counter = -1; // the first pass only gives log likelihood of initial factors
+
+		// gradient buffers are allocated once and reused in all epochs
+		FactorMatrix uGradBuf = new FactorMatrix(users.length, k);
+		FactorMatrix vGradBuf = new FactorMatrix(venues.length, k);
+		FactorMatrix[] partials = newPartials();
+		double[] uGradData = uGradBuf.getData();
+		double[] vGradData = vGradBuf.getData();
 
-		System.out.println(prevLLH + " in " + (System.currentTimeMillis() - sTime)/1000 + " s");
 		while(!conv) {
-
+			// calculate gradient of users and venues in one pass. It also gives log likelihood at the current factors,
+			// i.e. after the update of the previous epoch, so the stop rule needs no other pass
+			double llh = fusedGrad(uGradBuf, vGradBuf, partials, true);
+			System.out.println(llh + " in " + (System.currentTimeMillis() - sTime)/1000 + " s");
+			if (counter >= 0 && (Math.abs((llh - prevLLH) / prevLLH) < 0.01 || counter == 10)) {
+				conv = true;
+				continue;
+			}
+			prevLLH = llh;
+			counter++;
 			sTime = System.currentTimeMillis();
-			Map<String, double[]> uGradMap = Collections.synchronizedMap(new HashMap<>());
-			// calculate gradient of users
-			allUIds.parallelStream().forEach(uId -> {
-				double[] uGrad = userGrad(uId);
-				uGradMap.put(uId, uGrad);
-			});
 
 			// update factor of users
-			allUIds.parallelStream().forEach(uId -> {
-				UserObject uo = userMap.get(uId);
-				double[] uGrad = uGradMap.get(uId);
-				double[] newUGrad = Function.minus(uo.getFactors(), Function.multiply(learningRate, uGrad));
-				uo.setFactors(newUGrad);
-			});
-			System.out.println("sub uLLH:" + calculateLLH() + " in " + (System.currentTimeMillis() - sTime)/1000 + "s");
-
-			sTime = System.currentTimeMillis();
-			// calculate gradient of venues
-			Map<String, double[]> vGradMap = Collections.synchronizedMap(new HashMap<>());
-			allVIds.parallelStream().forEach(vId ->{
-				double[] vGrad = venueGrad(vId);
-				vGradMap.put(vId, vGrad);
+			IntStream.range(0, users.length).parallel().forEach(uId -> {
+				uOpt.toStep(uId, uGradData, uGradBuf.offset(uId));
+				userFactors.addToRow(uId, 1.0, uGradData, uGradBuf.offset(uId));
 			});
 
 			// update factor of venues
-			allVIds.parallelStream().forEach(vId -> {
-				VenueObject vo = venueMap.get(vId);
-				double[] vGrad = vGradMap.get(vId);
-				double[] newVGrad = Function.minus(vo.getFactors(), Function.multiply(learningRate, vGrad));
-				vo.setFactors(newVGrad);
+			IntStream.range(0, venues.length).parallel().forEach(vId -> {
+				vOpt.toStep(vId, vGradData, vGradBuf.offset(vId));
+				venueFactors.addToRow(vId, 1.0, vGradData, vGradBuf.offset(vId));
 			});
-
-			double llh = calculateParallelLLH();
-			System.out.println(llh + " in " + (System.currentTimeMillis() - sTime)/1000 + " s");
-			if (Math.abs((llh - prevLLH) / prevLLH) < 0.01 || counter == 10)
-				conv = true;
-			else {
-				prevLLH = llh;
-				counter++;
-			}
+			areaFactors.rebuild();
 		}
 	}
 
@@ -167,31 +361,252 @@ public class Model {
 	 * Stochastic gradient descend
 	 */
 	public void learnParametersStochastic() {
-		ArrayList<String> allUIds = new ArrayList<>(userMap.keySet());
+		learnParametersStochastic(1, DEFAULT_SHARD_SIZE);
+	}
+
+	/**
+	 * Hogwild style parallel stochastic gradient descend. Each epoch, check-in pairs are shuffled and cut into shards
+	 * of shardSize pairs. Worker threads take shards one by one and update factors of users and venues without any
+	 * lock. Each step only touches one user, one venue and its area so threads rarely write to the same row. Sums of
+	 * areas are rebuilt after the threads of an epoch join, so the stop rule and the result do not see lost updates.
+	 * @param numThreads	number of worker threads
+	 * @param shardSize		number of pairs that a thread takes each time
+	 */
+	public void learnParametersStochastic(int numThreads, int shardSize) {
 		boolean conv = false;
 		long sTime = System.currentTimeMillis();
-		double prevLLH = calculateParallelLLH();
-		double learningRate = -0.000001;
+		ConvergenceMonitor monitor = newMonitor();
+		double prevLLH = monitor.evaluate();
+		Optimizer uOpt = Optimizer.create(optimizerName, users.length, k, learningRate);
+		Optimizer vOpt = Optimizer.create(optimizerName, venues.length, k, learningRate);
 		int counter = 0;
 
-		System.out.println(prevLLH + " in " + (System.currentTimeMillis() - sTime)/1000 + " s");
+		// user of each check-in entry
+		int numPairs = checkins.size();
+		int[] userOfEntry = new int[numPairs];
+		for (int uId = 0; uId < users.length; uId++)
+			for (int p = checkins.userBegin(uId); p < checkins.userEnd(uId); p++)
+				userOfEntry[p] = uId;
+		int[] order = new int[numPairs];
+		for (int p = 0; p < numPairs; p++)
+			order[p] = p;
+		Random rand = new Random();
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+
+		System.out.println(monitor.describe() + " in " + (System.currentTimeMillis() - sTime)/1000 + " s");
+		try {
+			while(!conv) {
+				sTime = System.currentTimeMillis();
+
+				// shuffle pairs
+				for (int i = numPairs - 1; i > 0; i--) {
+					int j = rand.nextInt(i + 1);
+					int t = order[i]; order[i] = order[j]; order[j] = t;
+				}
+
+				AtomicInteger nextShard = new AtomicInteger(0);
+				int numShards = (numPairs + shardSize - 1) / shardSize;
+				List<Future<?>> workers = new ArrayList<>();
+				for (int t = 0; t < numThreads; t++) {
+					workers.add(pool.submit(() -> {
+						int shard;
+						while ((shard = nextShard.getAndIncrement()) < numShards) {
+							int end = Math.min(numPairs, (shard + 1) * shardSize);
+							for (int i = shard * shardSize; i < end; i++) {
+								int p = order[i];
+								sgdStep(userOfEntry[p], checkins.getVenue(p), checkins.getUserCks(p), uOpt, vOpt);
+							}
+						}
+					}));
+				}
+				for (Future<?> w : workers)
+					w.get();
+				// sums of areas lose updates of threads which write to the same area at the same time
+				areaFactors.rebuild();
+
+				long time = System.currentTimeMillis() - sTime;
+				System.out.println(numPairs * 1000.0 / Math.max(1, time) + " pairs/s with " + numThreads + " threads");
+
+				double llh = monitor.evaluate();
+				System.out.println(monitor.describe() + " in " + (System.currentTimeMillis() - sTime)/1000 + " s");
+				if (Math.abs((llh - prevLLH) / prevLLH) < 0.01 || counter == 10)
+					conv = true;
+				else {
+					prevLLH = llh;
+					counter++;
+				}
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+		} finally {
+			pool.shutdown();
+		}
+		monitor.finish();
+	}
+
+	/**
+	 * parallel stochastic gradient descend with the conflict-free schedule of StratifiedSchedule. Rounds are run one
+	 * after another; in each round every thread processes its own block of pairs, so there are no conflicting writes
+	 * to user, venue or area rows and no lock is needed. Reads of friend factors and sampling of neighbors are still
+	 * nondeterministic. If areas are not grid cells, Hogwild mode is used instead
+	 * @param numThreads	number of worker threads
+	 */
+	public void learnParametersStratified(int numThreads) {
+		if (!StratifiedSchedule.isApplicable(areas, neighbors, areaFactors)) {
+			System.out.println("areas are not grid cells or neighbors are outside 3x3 cells, use Hogwild mode");
+			learnParametersStochastic(numThreads, DEFAULT_SHARD_SIZE);
+			return;
+		}
+		boolean conv = false;
+		long sTime = System.currentTimeMillis();
+		ConvergenceMonitor monitor = newMonitor();
+		double prevLLH = monitor.evaluate();
+		Optimizer uOpt = Optimizer.create(optimizerName, users.length, k, learningRate);
+		Optimizer vOpt = Optimizer.create(optimizerName, venues.length, k, learningRate);
+		int counter = 0;
+
+		StratifiedSchedule schedule = new StratifiedSchedule(checkins, areas, areaFactors, numThreads);
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+
+		System.out.println(monitor.describe() + " in " + (System.currentTimeMillis() - sTime)/1000 + " s");
+		try {
+			while(!conv) {
+				sTime = System.currentTimeMillis();
+
+				for (int round = 0; round < schedule.getNumRounds(); round++) {
+					int r = round;
+					List<Future<?>> workers = new ArrayList<>();
+					for (int t = 0; t < numThreads; t++) {
+						int block = t;
+						workers.add(pool.submit(() -> {
+							for (int i = schedule.begin(r, block); i < schedule.end(r, block); i++) {
+								int p = schedule.entry(i);
+								sgdStep(schedule.userOf(p), checkins.getVenue(p), checkins.getUserCks(p), uOpt, vOpt);
+							}
+						}));
+					}
+					// barrier between rounds
+					for (Future<?> w : workers)
+						w.get();
+				}
+				areaFactors.rebuild(); // drop rounding errors of delta updates
+
+				long time = System.currentTimeMillis() - sTime;
+				System.out.println(checkins.size() * 1000.0 / Math.max(1, time) + " pairs/s with " + numThreads + " threads");
+
+				double llh = monitor.evaluate();
+				System.out.println(monitor.describe() + " in " + (System.currentTimeMillis() - sTime)/1000 + " s");
+				if (Math.abs((llh - prevLLH) / prevLLH) < 0.01 || counter == 10)
+					conv = true;
+				else {
+					prevLLH = llh;
+					counter++;
+				}
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+		} finally {
+			pool.shutdown();
+		}
+		monitor.finish();
+	}
+
+	/**
+	 * mini-batch gradient descend over check-in pairs. Each epoch, pairs are shuffled and cut into batches of batchSize
+	 * pairs. For each batch, gradients of all pairs are computed in parallel from the same factors into preallocated
+	 * buffers (one row per pair in the batch). Then they are applied in parallel: pairs are grouped by user and by
+	 * area of venue, and each group is applied by one thread, so no lock is needed. All buffers are allocated once, so
+	 * memory does not grow with number of epochs
+	 * @param batchSize	number of check-in pairs in one batch
+	 */
+	public void learnParametersMiniBatch(int batchSize) {
+		boolean conv = false;
+		long sTime = System.currentTimeMillis();
+		ConvergenceMonitor monitor = newMonitor();
+		double prevLLH = monitor.evaluate();
+		Optimizer uOpt = Optimizer.create(optimizerName, users.length, k, learningRate);
+		Optimizer vOpt = Optimizer.create(optimizerName, venues.length, k, learningRate);
+		int counter = 0;
+
+		int numPairs = checkins.size();
+		int[] userOfEntry = new int[numPairs];
+		for (int uId = 0; uId < users.length; uId++)
+			for (int p = checkins.userBegin(uId); p < checkins.userEnd(uId); p++)
+				userOfEntry[p] = uId;
+		int[] order = new int[numPairs];
+		for (int p = 0; p < numPairs; p++)
+			order[p] = p;
+		Random rand = new Random();
+
+		// buffers of one batch. Row i is gradient of the i-th pair of batch
+		FactorMatrix uGradBuf = new FactorMatrix(batchSize, k);
+		FactorMatrix vGradBuf = new FactorMatrix(batchSize, k);
+		double[] uGradData = uGradBuf.getData();
+		double[] vGradData = vGradBuf.getData();
+		// key is (user or area) in the high bits and position in batch in the low bits
+		long[] keys = new long[batchSize];
+		int[] groupStart = new int[batchSize + 1];
+
+		System.out.println(monitor.describe() + " in " + (System.currentTimeMillis() - sTime)/1000 + " s");
 		while(!conv) {
 			sTime = System.currentTimeMillis();
 
-			for(String uId: allUIds) {
-				UserObject uo = userMap.get(uId);
-				for (String vId : uo.getAllVenues()){
-					double[] uGrad = userGrad(uId, vId);
-					uo.setFactors(Function.minus(uo.getFactors(), Function.multiply(learningRate, uGrad)));
+			// shuffle pairs
+			for (int i = numPairs - 1; i > 0; i--) {
+				int j = rand.nextInt(i + 1);
+				int t = order[i]; order[i] = order[j]; order[j] = t;
+			}
 
-					VenueObject vo = venueMap.get(vId);
-					double[] vGrad = venueGrad(uId, vId);
-					vo.setFactors(Function.minus(vo.getFactors(), Function.multiply(learningRate, vGrad)));
-				}
+			for (int b = 0; b < numPairs; b += batchSize) {
+				int start = b;
+				int size = Math.min(batchSize, numPairs - b);
+
+				// gradients of all pairs of batch
+				uGradBuf.clear();
+				vGradBuf.clear();
+				IntStream.range(0, size).parallel().forEach(i -> {
+					int p = order[start + i];
+					int uId = userOfEntry[p], vId = checkins.getVenue(p);
+					double w = checkins.getUserCks(p);
+					NeighborSample ns = neighborsOf(vId);
+					userGrad(uId, vId, w, ns, uGradData, uGradBuf.offset(i));
+					venueGrad(uId, vId, w, ns, vGradData, vGradBuf.offset(i));
+				});
+
+				// update users. Each group has pairs of one user
+				for (int i = 0; i < size; i++)
+					keys[i] = ((long) userOfEntry[order[start + i]] << 32) | i;
+				int numGroups = groupKeys(keys, size, groupStart);
+				IntStream.range(0, numGroups).parallel().forEach(g -> {
+					for (int j = groupStart[g]; j < groupStart[g + 1]; j++) {
+						int i = (int) keys[j];
+						int uId = (int) (keys[j] >>> 32);
+						uOpt.toStep(uId, uGradData, uGradBuf.offset(i));
+						userFactors.addToRow(uId, 1.0, uGradData, uGradBuf.offset(i));
+					}
+				});
+
+				// update venues. Each group has pairs of venues of one area, so sum of the area is updated by one thread
+				for (int i = 0; i < size; i++)
+					keys[i] = ((long) areaFactors.areaOf(checkins.getVenue(order[start + i])) << 32) | i;
+				numGroups = groupKeys(keys, size, groupStart);
+				IntStream.range(0, numGroups).parallel().forEach(g -> {
+					for (int j = groupStart[g]; j < groupStart[g + 1]; j++) {
+						int i = (int) keys[j];
+						int vId = checkins.getVenue(order[start + i]);
+						vOpt.toStep(vId, vGradData, vGradBuf.offset(i));
+						areaFactors.addToVenue(vId, 1.0, vGradData, vGradBuf.offset(i));
+					}
+				});
 			}
 
-			double llh = calculateParallelLLH();
-			System.out.println(llh + " in " + (System.currentTimeMillis() - sTime)/1000 + " s");
+			areaFactors.rebuild(); // drop rounding errors of delta updates
+
+			long time = System.currentTimeMillis() - sTime;
+			System.out.println(numPairs * 1000.0 / Math.max(1, time) + " pairs/s with batch size " + batchSize);
+
+			double llh = monitor.evaluate();
+			System.out.println(monitor.describe() + " in " + (System.currentTimeMillis() - sTime)/1000 + " s");
 			if (Math.abs((llh - prevLLH) / prevLLH) < 0.01 || counter == 10)
 				conv = true;
 			else {
@@ -199,262 +614,403 @@ public class Model {
 				counter++;
 			}
 		}
+		monitor.finish();
 	}
-	
+
 	/**
-	 * calculate the gradient of user
-	 * @param userId	id of user
-	 * @return			gradient vector of latent factor
+	 * sort keys and find groups of keys which have the same high 32 bits
+	 * @param keys			keys; first size elements are used
+	 * @param size			number of keys
+	 * @param groupStart	group g is keys[groupStart[g]..groupStart[g + 1])
+	 * @return				number of groups
 	 */
-	private double[] userGrad(String userId) {
-		double[] grad = new double[k];
-		UserObject uo = userMap.get(userId);
-		double[] uFactor = uo.getFactors();
-		
-		// 1st part
-		Set<String> lOfVenues = uo.getAllVenues();
-		for (String vId : lOfVenues) {
-			VenueObject vo = venueMap.get(vId);
-			String aId = vo.getAreaId();
-			AreaObject ao = areaMap.get(aId);
-			double[] aFactor = new double[k];
-			
-			for (String venueId : ao.getSetOfVenueIds()) {
-				VenueObject venueObj = venueMap.get(venueId);
-				aFactor = Function.plus(aFactor, venueObj.getFactors());
-			}
-			
-			double w = uo.retrieveNumCks(vId);
-			double denominator = w / Function.innerProduct(uFactor, aFactor);
-			
-			grad = Function.plus(grad, Function.multiply(denominator, aFactor));
-		}
-		
-		// 2nd part
-		for (String vId : lOfVenues) {
-			VenueObject vo = venueMap.get(vId);
-			Set<String> neighbors = vo.getNeighbors();
-			double lhs = Function.innerProduct(uFactor, vo.getFactors());
-			
-			double[] sub = new double[k];
-			for (String nId : neighbors) {
-				VenueObject neighborObj = venueMap.get(nId);
-				double rhs = Function.innerProduct(uFactor, neighborObj.getFactors());
-				double diff = lhs - rhs;
-				double p = - steepness * Math.exp(-steepness * diff ) / (1.0 + Math.exp(-2.0 * diff));
-				double[] subVector = Function.minus(neighborObj.getFactors(), vo.getFactors());
-				subVector = Function.multiply(p, subVector);
-
-				sub = Function.plus(sub, subVector);
-			}
-			sub = Function.multiply(uo.retrieveNumCks(vId), sub);
-			grad = Function.plus(sub, grad);
-		}
+	private static int groupKeys(long[] keys, int size, int[] groupStart) {
+		Arrays.sort(keys, 0, size);
+		int numGroups = 0;
+		for (int j = 0; j < size; j++)
+			if (j == 0 || (keys[j] >>> 32) != (keys[j - 1] >>> 32))
+				groupStart[numGroups++] = j;
+		groupStart[numGroups] = size;
+		return numGroups;
+	}
 
-		// regularization
-		grad = Function.plus(grad, Function.multiply(-2.0 * params.getLambda_u(), uFactor));
-
-		//friendship network
-		ArrayList<String> friends = uo.getListOfFriends();
-		if (isFriend && (friends != null)) {
-			double[] reg = new double[k];
-			for (String f : friends) {
-				UserObject fObj = userMap.get(f);
-				reg = Function.plus(reg, Function.minus(fObj.getFactors(), uFactor));
+	/**
+	 * full-batch training with nonlinear conjugate gradient (Polak-Ribiere) and line search of commons-math. All
+	 * factors of users and venues are one parameter vector; objective is log likelihood and its gradient comes from
+	 * fusedGrad. The best point that is evaluated is kept, also when the optimizer stops by number of evaluations
+	 * @param maxEvaluations	maximum number of evaluations of log likelihood
+	 */
+	public void learnParametersCG(int maxEvaluations) {
+		long sTime = System.currentTimeMillis();
+		int uSize = users.length * k;
+		int vSize = venues.length * k;
+
+		FactorMatrix uGradBuf = new FactorMatrix(users.length, k);
+		FactorMatrix vGradBuf = new FactorMatrix(venues.length, k);
+		FactorMatrix[] partials = newPartials();
+
+		double[] x0 = new double[uSize + vSize];
+		System.arraycopy(userFactors.getData(), 0, x0, 0, uSize);
+		System.arraycopy(venueFactors.getData(), 0, x0, uSize, vSize);
+		double[] best = x0.clone();
+		double[] bestLLH = {calculateParallelLLH()};
+		System.out.println(bestLLH[0] + " in " + (System.currentTimeMillis() - sTime)/1000 + " s");
+
+		ObjectiveFunction llh = new ObjectiveFunction(x -> {
+			setParameters(x, uSize, vSize);
+			double l = calculateParallelLLH();
+			if (l > bestLLH[0]) {
+				bestLLH[0] = l;
+				System.arraycopy(x, 0, best, 0, x.length);
 			}
-			double numFriends = (double) friends.size();
-			reg = Function.multiply(params.getLambda_f() / numFriends, reg);
-			grad = Function.plus(grad, reg);
+			return Double.isNaN(l) ? Double.NEGATIVE_INFINITY : l;
+		});
+		ObjectiveFunctionGradient gradient = new ObjectiveFunctionGradient(x -> {
+			setParameters(x, uSize, vSize);
+			fusedGrad(uGradBuf, vGradBuf, partials, false);
+			double[] g = new double[x.length];
+			System.arraycopy(uGradBuf.getData(), 0, g, 0, uSize);
+			System.arraycopy(vGradBuf.getData(), 0, g, uSize, vSize);
+			return g;
+		});
+
+		NonLinearConjugateGradientOptimizer optimizer = new NonLinearConjugateGradientOptimizer(
+				NonLinearConjugateGradientOptimizer.Formula.POLAK_RIBIERE, new SimpleValueChecker(1e-4, 1e-8),
+				1e-8, 1e-8, 1e-6);
+		try {
+			optimizer.optimize(new MaxEval(maxEvaluations), new MaxIter(Integer.MAX_VALUE), llh, gradient,
+					GoalType.MAXIMIZE, new InitialGuess(x0));
+		} catch (TooManyEvaluationsException e) {
+			System.out.println("stop after " + maxEvaluations + " evaluations");
 		}
 
-		return grad;
+		setParameters(best, uSize, vSize);
+		System.out.println(bestLLH[0] + " after " + optimizer.getIterations() + " iterations, "
+				+ optimizer.getEvaluations() + " evaluations in " + (System.currentTimeMillis() - sTime)/1000 + " s");
 	}
-	
+
 	/**
-	 * calculate gradient vector of latent feature of venue
-	 * @param venueId	id of venue
-	 * @return			gradient vector of latent factor of venue
+	 * copy parameter vector to factors of users and venues and rebuild sums of areas
+	 * @param x		factors of all users followed by factors of all venues
+	 * @param uSize	number of elements of user factors
+	 * @param vSize	number of elements of venue factors
 	 */
-	private double[] venueGrad(String venueId) {
-		double[] grad = new double[k];
-		VenueObject vo = venueMap.get(venueId);
-		double[] vFactor = vo.getFactors();
-		String aId = vo.getAreaId();
-		AreaObject ao = areaMap.get(aId);
-		Set<String> setOfVenues = ao.getSetOfVenueIds();
-		
-		// 1st part
-		for (String vId : setOfVenues) {
-			VenueObject venueObj = venueMap.get(vId);
-			ArrayList<String> userIds = venueObj.getUserIds();
-			for (String uId : userIds) {
-				UserObject uo = userMap.get(uId);
-				double[] uFactor = uo.getFactors();
-				
-				double[] sub = new double[k];
-				for (String vPrime : setOfVenues) 
-					sub = Function.plus(sub, venueMap.get(vPrime).getFactors());
-				
-				double argument = uo.retrieveNumCks(vId) / Function.innerProduct(uFactor, sub);
-				double[] comp = Function.multiply(argument, uFactor);
-				grad = Function.plus(comp, grad);
-			}
-		}
-		
-		// 2nd part
-		ArrayList<String> uList = vo.getUserIds();
-		Set<String> neighborIds = vo.getNeighbors();
-		
-		for (String uId : uList) {
-			UserObject uo = userMap.get(uId);
-			double[] uFactor = uo.getFactors();
-			double lhs = Function.innerProduct(uFactor, vFactor);
-			
-			double[] sub = new double[k];
-			for (String nId : neighborIds) {
-				VenueObject nObj = venueMap.get(nId);
-				double rhs = Function.innerProduct(uFactor, nObj.getFactors());
-				double diff = lhs - rhs;
-				double e = Math.exp(- steepness * diff);
-				double p = steepness * e / (1.0 + e);
-
-				sub = Function.plus(sub, Function.multiply(p, uFactor));
-			}
-			
-			sub = Function.multiply(uo.retrieveNumCks(venueId), sub);
-			grad = Function.plus(sub, grad);
+	private void setParameters(double[] x, int uSize, int vSize) {
+		System.arraycopy(x, 0, userFactors.getData(), 0, uSize);
+		System.arraycopy(x, uSize, venueFactors.getData(), 0, vSize);
+		areaFactors.rebuild();
+	}
+
+	/**
+	 * use sampled neighbors in gradients of check-in pairs (stochastic, Hogwild, stratified and mini-batch training).
+	 * Each step draws numSamples neighbors of the venue with importance weights, so it costs O(numSamples * k)
+	 * instead of O(|neighbors| * k). Log likelihood and full-batch gradients always use all neighbors
+	 * @param numSamples	number of neighbors drawn for each pair; 0 or less means all neighbors
+	 * @param byPopularity	true to draw neighbors proportional to their number of check-ins (plus 1), false to
+	 * 						draw them uniformly
+	 */
+	public void setNeighborSampling(int numSamples, boolean byPopularity) {
+		if (numSamples <= 0) {
+			sampler = null;
+			return;
 		}
-		
-		// 3rd part
-		for (String nId : neighborIds) {
-			VenueObject nObj = venueMap.get(nId);
-			ArrayList<String> userList = nObj.getUserIds();
-			
-			for (String uId : userList) {
-				UserObject uo = userMap.get(uId);
-				double[] uFactor = uo.getFactors();
-				double lhs = Function.innerProduct(uFactor, nObj.getFactors());
-				double rhs = Function.innerProduct(uFactor, vFactor);
-				double diff = lhs - rhs;
-				double e = Math.exp(- steepness * diff);
-				double p = - steepness * e / (1.0 + e);
-
-				double[] sub = Function.multiply(p * uo.retrieveNumCks(nId), uFactor);
-				grad = Function.plus(sub, grad);
-			}
+		double[] popularity = null;
+		if (byPopularity) {
+			popularity = new double[venues.length];
+			for (int vId = 0; vId < venues.length; vId++)
+				popularity[vId] = venues[vId].getTotalCks() + 1.0;
 		}
+		sampler = new NeighborSampler(neighbors, numSamples, popularity);
+	}
 
-		// regularization
-		grad = Function.plus(grad, Function.multiply(-2.0 * params.getLambda_v(), vFactor));
-
-		return grad;
+	/**
+	 * neighbors of venue which are used in one gradient step. The result is a buffer of the calling thread
+	 * @param vId	venue index
+	 * @return		all neighbors with weight 1, or sampled neighbors with importance weights
+	 */
+	private NeighborSample neighborsOf(int vId) {
+		NeighborSample ns = samples.get();
+		if (sampler == null)
+			ns.fillAll(neighbors, vId);
+		else
+			sampler.sample(vId, ThreadLocalRandom.current(), ns);
+		return ns;
 	}
 
 	/**
-	 * 
-	 * @return	calculate the log likelihood of model
+	 * update factors of user and venue with gradient of one check-in pair
+	 * @param uId			user index
+	 * @param vId			venue index
+	 * @param w				number of check-ins of the pair, read by position in the check-in matrix
+	 * @param uOpt			update rule of users
+	 * @param vOpt			update rule of venues
 	 */
-	public double calculateLLH() {
-		return Loglikelihood.calculateLLH(userMap, venueMap, areaMap, steepness, k, params, isFriend);
+	private void sgdStep(int uId, int vId, double w, Optimizer uOpt, Optimizer vOpt) {
+		NeighborSample ns = neighborsOf(vId);
+		StepBuffer buf = steps.get();
+
+		double[] uGrad = buf.uGrad;
+		Arrays.fill(uGrad, 0.0);
+		userGrad(uId, vId, w, ns, uGrad, 0);
+		uOpt.toStep(uId, uGrad, 0);
+		userFactors.addToRow(uId, 1.0, uGrad);
+
+		double[] vGrad = buf.vGrad;
+		Arrays.fill(vGrad, 0.0);
+		venueGrad(uId, vId, w, ns, vGrad, 0);
+		vOpt.toStep(vId, vGrad, 0);
+		areaFactors.addToVenue(vId, 1.0, vGrad);
+	}
+	
+	/**
+	 * buffers of the tasks of fusedGrad. There is one task per processor but at most MAX_FUSED_TASKS, so the buffers
+	 * take at most MAX_FUSED_TASKS times the memory of venue and area factors on machines with many cores
+	 * @return	one buffer of venues.length + areas.length rows per task
+	 */
+	private FactorMatrix[] newPartials() {
+		int numTasks = Math.min(MAX_FUSED_TASKS, Runtime.getRuntime().availableProcessors());
+		FactorMatrix[] partials = new FactorMatrix[Math.max(1, Math.min(users.length, numTasks))];
+		for (int t = 0; t < partials.length; t++)
+			partials[t] = new FactorMatrix(venues.length + areas.length, k);
+		return partials;
 	}
 
 	/**
-	 * calculate log likelihood with highly parallel
-	 * @return	log likelihood
+	 * calculate gradients of all users and all venues in one pass over check-ins. It is the exact gradient of
+	 * calculateParallelLLH for any steepness, including the friendship term, so learnParametersCG can use it in its
+	 * line search. For each check-in (u, v) the
+	 * logistic term of each neighbor n is computed once and used for the gradient of u, of v and of n. So the
+	 * gradient of a venue also gets the pairs where it is the neighbor, which is right when the neighbor relation is
+	 * not symmetric (nearest, popular). The area term is the same for all venues of an area so it is collected once
+	 * per area.
+	 * Users are split among tasks; contributions to venues and areas are scattered into the buffer of the task and
+	 * the buffers are summed at the end, so no lock is needed.
+	 * With withLLH, the log likelihood at the current factors is accumulated from the same area products and
+	 * neighbor differences, so no separate pass of calculateParallelLLH is needed
+	 * @param uGradBuf	row u is set to gradient of user u
+	 * @param vGradBuf	row v is set to gradient of venue v
+	 * @param partials	buffer of each task, each has venues.length + areas.length rows
+	 * @param withLLH	true to compute log likelihood too
+	 * @return			log likelihood at the current factors; NaN if withLLH is false
 	 */
-	public double calculateParallelLLH() {
-		return Loglikelihood.calculateParallelLLH(userMap, venueMap, areaMap, steepness, k, params, isFriend);
+	double fusedGrad(FactorMatrix uGradBuf, FactorMatrix vGradBuf, FactorMatrix[] partials, boolean withLLH) {
+		int numTasks = partials.length;
+		int numVenues = venues.length;
+		double[] uGradData = uGradBuf.getData();
+		double[] taskLLH = new double[numTasks];
+		double numFriendPairs = isFriend ? Loglikelihood.countFriendPairs(this) : 0.0;
+
+		IntStream.range(0, numTasks).parallel().forEach(t -> {
+			FactorMatrix part = partials[t];
+			double[] pData = part.getData();
+			part.clear();
+			ScoreCache scores = venueScores.get();
+			CellAggregator cells = aggregators.get();
+			double[] uFactor = new double[k];
+			double llh = 0.0;
+
+			for (int uId = t; uId < users.length; uId += numTasks) {
+				int off = uGradBuf.offset(uId);
+				Arrays.fill(uGradData, off, off + k, 0.0);
+				userFactors.getRow(uId, uFactor);
+				scores.reset(uFactor);
+
+				// user chooses area
+				for (int i = checkins.userBegin(uId); i < checkins.userEnd(uId); i++) {
+					int aId = areaFactors.areaOf(checkins.getVenue(i));
+					double d = areaFactors.dotArea(aId, uFactor);
+					double denominator = checkins.getUserCks(i) / d;
+					if (withLLH)
+						llh += checkins.getUserCks(i) * Math.log(d);
+					areaFactors.accumulateArea(aId, denominator, uGradData, off);
+					Function.axpy(denominator, uFactor, 0, pData, part.offset(numVenues + aId), k);
+				}
+
+				// venue wins over its neighbors. Coefficients of neighbors are summed over check-ins of one cell
+				int numRuns = cells.group(checkins, neighbors, uId);
+				for (int r = 0; r < numRuns; r++) {
+					int g = cells.groupOfRun(r);
+					int b = neighbors.groupBegin(g);
+					int size = neighbors.groupEnd(g) - b;
+					double[] rhs = cells.loadScores(neighbors, g, scores);
+					double[] coef = cells.getCoef();
+
+					for (int j = cells.runBegin(r); j < cells.runEnd(r); j++) {
+						int i = cells.entry(j);
+						int vId = checkins.getVenue(i);
+						double w = checkins.getUserCks(i);
+						double lhs = scores.score(vId);
+
+						// derivative of log logistic(s * (u.v - u.n)) is p * (v - n) for u, p * u for v and -p * u for n
+						double total = 0.0;
+						for (int q = 0; q < size; q++) {
+							if (neighbors.target(b + q) == vId)
+								continue;
+							double diff = lhs - rhs[q];
+							double p = steepness * Function.logisticFunc(steepness, -diff);
+							coef[q] += w * p;
+							total += p;
+
+							if (withLLH)
+								llh += w * Function.logLogisticFunc(steepness, diff);
+						}
+						venueFactors.accumulateRow(vId, w * total, uGradData, off);
+						Function.axpy(w * total, uFactor, 0, pData, part.offset(vId), k);
+					}
+
+					for (int q = 0; q < size; q++) {
+						if (coef[q] == 0.0)
+							continue;
+						int nId = neighbors.target(b + q);
+						venueFactors.accumulateRow(nId, -coef[q], uGradData, off);
+						Function.axpy(-coef[q], uFactor, 0, pData, part.offset(nId), k);
+					}
+				}
+
+				// regularization
+				Function.axpy(-2.0 * params.getLambda_u(), uFactor, 0, uGradData, off, k);
+
+				//friendship network. u is in ||u - f||^2 of its friends f and of users w who have u as friend
+				int[] friends = users[uId].getListOfFriends();
+				if (isFriend && numFriendPairs > 0.0) {
+					double f = 2.0 * params.getLambda_f() / numFriendPairs;
+					int numTerms = 0;
+					if (friends != null) {
+						for (int fId : friends)
+							userFactors.accumulateRow(fId, f, uGradData, off);
+						numTerms += friends.length;
+					}
+					for (int wId : friendOf[uId])
+						userFactors.accumulateRow(wId, f, uGradData, off);
+					numTerms += friendOf[uId].length;
+					Function.axpy(-f * numTerms, uFactor, 0, uGradData, off, k);
+				}
+
+				if (withLLH) {
+					llh -= params.getLambda_u() * Function.sqrNorm(uFactor);
+					if (isFriend && friends != null && numFriendPairs > 0.0)
+						for (int fId : friends)
+							llh -= params.getLambda_f() * userFactors.sqrDistanceRows(uId, fId) / numFriendPairs;
+				}
+			}
+			taskLLH[t] = llh;
+		});
+
+		// sum buffers of tasks
+		double[] vGradData = vGradBuf.getData();
+		double venueReg = IntStream.range(0, numVenues).parallel().mapToDouble(vId -> {
+			int off = vGradBuf.offset(vId);
+			Arrays.fill(vGradData, off, off + k, 0.0);
+			int aRow = numVenues + areaFactors.areaOf(vId);
+			for (FactorMatrix part : partials) {
+				part.accumulateRow(vId, 1.0, vGradData, off);
+				part.accumulateRow(aRow, 1.0, vGradData, off);
+			}
+			venueFactors.accumulateRow(vId, -2.0 * params.getLambda_v(), vGradData, off);
+			return withLLH ? params.getLambda_v() * venueFactors.sqrNormRow(vId) : 0.0;
+		}).sum();
+
+		if (!withLLH)
+			return Double.NaN;
+		return Arrays.stream(taskLLH).sum() - venueReg;
 	}
 
-	private double[] userGrad(String uId, String vId) {
-		UserObject u = userMap.get(uId);
-		double[] uFactor = u.getFactors();
-		VenueObject v = venueMap.get(vId);
-		double[] vFactor = v.getFactors();
-		AreaObject ao = areaMap.get(v.getAreaId());
-		double[] aFactor = new double[k];
-		for (String venueId : ao.getSetOfVenueIds()) {
-			double[] venueFactor = venueMap.get(venueId).getFactors();
-			aFactor = Function.plus(aFactor, venueFactor);
-		}
-		double denominator = Function.innerProduct(u.getFactors(), aFactor);
+	/**
+	 * add gradient of user of one check-in pair to grad[off..off + k)
+	 * @param uId		user index
+	 * @param vId		venue index
+	 * @param w			number of check-ins of the pair
+	 * @param ns		neighbors of venue with their weights
+	 * @param grad		gradient buffer
+	 * @param off		position of gradient vector in buffer
+	 */
+	private void userGrad(int uId, int vId, double w, NeighborSample ns, double[] grad, int off) {
+		UserObject u = users[uId];
+		double[] uFactor = userFactors.getRow(uId, steps.get().uFactor);
+		int aId = venues[vId].getAreaId();
+		double denominator = areaFactors.dotArea(aId, uFactor);
 
-		double[] result = Function.multiply(1.0/ denominator, aFactor);
+		areaFactors.accumulateArea(aId, w / denominator, grad, off);
 
-		double lhs = Function.innerProduct(v.getFactors(), uFactor);
-		double[] l2 = new double[k];
+		double lhs = venueFactors.dotRow(vId, uFactor);
+		double totalInFront = 0.0;
 
-		for(String nId : v.getNeighbors()) {
-			VenueObject nObj = venueMap.get(nId);
-			double rhs = Function.innerProduct(nObj.getFactors(), uFactor);
+		for (int j = 0; j < ns.size(); j++) {
+			int nId = ns.getId(j);
+			double rhs = venueFactors.dotRow(nId, uFactor);
 			double diff = lhs - rhs;
-			double[] diffVector = Function.minus(nObj.getFactors(), vFactor);
-			double inFront = - steepness * Math.exp(-steepness * diff) / (1.0 + Math.exp(-2.0 * diff));
+			double inFront = - ns.getWeight(j) * steepness * Function.logisticFunc(steepness, -diff);
 
-			l2 = Function.plus(l2, Function.multiply(inFront, diffVector));
-		}
-		result = Function.plus(l2, result);
-
-		double[] r = Function.multiply(-2.0 * params.getLambda_u(), uFactor);
-
-		double[] finalResult = Function.plus(Function.multiply(u.retrieveNumCks(vId), result), r);
-
-		ArrayList<String> lOfFriends = u.getListOfFriends();
-		if (isFriend && (lOfFriends != null)) {
-			double[] reg = new double[k];
-			double numFriends = 0.0;
-			for (String f : lOfFriends) {
-				UserObject fObj = userMap.get(f);
-				if (fObj == null)
-					continue;
-				numFriends += 1.0;
-				reg = Function.plus(reg, Function.minus(fObj.getFactors(), uFactor));
-			}
-			if (numFriends > 0.0) {
-				reg = Function.multiply(2.0 * params.getLambda_f() / numFriends, reg);
-				finalResult = Function.plus(finalResult, reg);
-			}
+			// grad += w * inFront * (neighbor factor - venue factor)
+			venueFactors.accumulateRow(nId, w * inFront, grad, off);
+			totalInFront += inFront;
 		}
+		venueFactors.accumulateRow(vId, -w * totalInFront, grad, off);
 
-		return finalResult;
+		// regularization
+		Function.axpy(-2.0 * params.getLambda_u(), uFactor, 0, grad, off, k);
+
+		int[] lOfFriends = u.getListOfFriends();
+		if (isFriend && (lOfFriends != null) && lOfFriends.length > 0) {
+			double numFriends = lOfFriends.length;
+			double t = 2.0 * params.getLambda_f() / numFriends;
+			for (int f : lOfFriends)
+				userFactors.accumulateRow(f, t, grad, off);
+			Function.axpy(-t * numFriends, uFactor, 0, grad, off, k);
+		}
 	}
 
-	private double[] venueGrad(String uId, String vId) {
-		UserObject uObj = userMap.get(uId);
-		double[] uFactor = uObj.getFactors();
+	private double[] venueGrad(int uId, int vId) {
+		double[] grad = new double[k];
+		venueGrad(uId, vId, checkins.retrieveNumCks(uId, vId), neighborsOf(vId), grad, 0);
+		return grad;
+	}
 
-		VenueObject vObj = venueMap.get(vId);
-		double[] vFactor = vObj.getFactors();
-		Set<String> neighborIds = vObj.getNeighbors();
-		AreaObject aObj = areaMap.get(vObj.getAreaId());
+	/**
+	 * add gradient of venue of one check-in pair to grad[off..off + k)
+	 * @param uId		user index
+	 * @param vId		venue index
+	 * @param w			number of check-ins of the pair
+	 * @param ns		neighbors of venue with their weights
+	 * @param grad		gradient buffer
+	 * @param off		position of gradient vector in buffer
+	 */
+	private void venueGrad(int uId, int vId, double w, NeighborSample ns, double[] grad, int off) {
+		double[] uFactor = userFactors.getRow(uId, steps.get().uFactor);
 
-		double[] aFactor = new double[k];
-		for (String nId : aObj.getSetOfVenueIds()){
-			VenueObject nObj = venueMap.get(nId);
-			aFactor = Function.plus(aFactor, nObj.getFactors());
-		}
-		double d = Function.innerProduct(uFactor, aFactor);
-		double[] result = Function.multiply(1.0 / d, uFactor);
+		double d = areaFactors.dotArea(venues[vId].getAreaId(), uFactor);
 
-		double lhs = Function.innerProduct(uFactor, vFactor);
+		double lhs = venueFactors.dotRow(vId, uFactor);
 		double total = 0.0;
-		for (String nId : neighborIds) {
-			VenueObject nObj = venueMap.get(nId);
-			double rhs = Function.innerProduct(uFactor, nObj.getFactors());
+		for (int j = 0; j < ns.size(); j++) {
+			double rhs = venueFactors.dotRow(ns.getId(j), uFactor);
 			double diff = lhs - rhs;
-			double multiplier = steepness * Math.exp(-steepness * diff) / (1.0 + Math.exp(-steepness * diff));
+			double multiplier = ns.getWeight(j) * steepness * Function.logisticFunc(steepness, -diff);
 			total += multiplier;
 		}
-		result = Function.plus(result, Function.multiply(total, uFactor));
+		// grad = w * (1 / d + total) * uFactor - 2 * lambda_v * vFactor
+		Function.axpy(w * (1.0 / d + total), uFactor, 0, grad, off, k);
+		venueFactors.accumulateRow(vId, -2.0 * params.getLambda_v(), grad, off);
+	}
 
-		// regularization
-		double[] r = Function.multiply(-2.0 * params.getLambda_v(), vFactor);
+	/**
+	 * 
+	 * @return	calculate the log likelihood of model
+	 */
+	public double calculateLLH() {
+		return Loglikelihood.calculateLLH(this);
+	}
 
-		return Function.plus(Function.multiply(uObj.retrieveNumCks(vId), result), r);
+	/**
+	 * calculate log likelihood with highly parallel
+	 * @return	log likelihood
+	 */
+	public double calculateParallelLLH() {
+		return Loglikelihood.calculateParallelLLH(this);
 	}
 
-	public double calculateLLH(String uId, String vId) {
-		return Loglikelihood.calculateLLH(uId, vId, userMap, venueMap, areaMap, steepness, k, params, isFriend);
+	public double calculateLLH(int uId, int vId) {
+		return Loglikelihood.calculateLLH(uId, vId, this);
 	}
 
 	public void writeModel(String filename) throws IOException {
@@ -468,21 +1024,19 @@ public class Model {
 
 		// user
 		result.add("users:");
-		for (String uId : userMap.keySet()) {
+		for (int uId = 0; uId < users.length; uId++) {
 			StringBuffer sb = new StringBuffer();
-			sb.append(uId + " ");
-			UserObject uo = userMap.get(uId);
-			sb.append(Arrays.toString(uo.getFactors()));
+			sb.append(users[uId].getId() + " ");
+			sb.append(Arrays.toString(userFactors.getRow(uId)));
 			result.add(sb.toString());
 		}
 
 		// venue
 		result.add("venues:");
-		for (String vId : venueMap.keySet()) {
+		for (int vId = 0; vId < venues.length; vId++) {
 			StringBuffer sb = new StringBuffer();
-			sb.append(vId + " ");
-			VenueObject vo = venueMap.get(vId);
-			sb.append(Arrays.toString(vo.getFactors()));
+			sb.append(venues[vId].getId() + " ");
+			sb.append(Arrays.toString(venueFactors.getRow(vId)));
 			result.add(sb.toString());
 		}
 
@@ -495,7 +1049,7 @@ public class Model {
 	 * @return		user object
 	 */
 	private UserObject getUO(String uId) {
-		return userMap.get(uId);
+		return users[userDict.getIndex(uId)];
 	}
 
 	/**
@@ -504,7 +1058,7 @@ public class Model {
 	 * @return		venue object
 	 */
 	private VenueObject getVO(String vId) {
-		return venueMap.get(vId);
+		return venues[venueDict.getIndex(vId)];
 	}
 
 	public static void main(String[] args){
@@ -516,10 +1070,10 @@ public class Model {
 				0.01,
 				true, 2.0);
 
-		String uId = "11824884"; String vId = "4be2b815b02ec9b6f8774dc0";
+		int uId = m.userDict.getIndex("11824884"); int vId = m.venueDict.getIndex("4be2b815b02ec9b6f8774dc0");
 
-//		UserObject o = m.getUO(uId);
-		VenueObject o = m.getVO(vId);
+//		UserObject o = m.getUO("11824884");
+		VenueObject o = m.getVO("4be2b815b02ec9b6f8774dc0");
 		o.setFactors(new double[]{1.0, 2.0, 3.0, 4.0, 5.0});
 		double eps = 0.0001;
 //		double[] grad = m.userGrad(uId, vId);
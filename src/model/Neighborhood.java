@@ -0,0 +1,100 @@
+package model;
+
+import java.util.ArrayList;
+
+import object.AreaObject;
+import object.CheckinMatrix;
+import object.NeighborGraph;
+import object.PointObject;
+import utils.Utils;
+
+/**
+ * how areas and neighbors of venues are built when the model is created. Areas are grid cells of size scale
+ * (degree) except in quadtree mode.
+ * 	box:		neighbors are venues of the 3x3 cells around the cell of venue
+ * 	radius:		neighbors are venues closer than a distance (meter)
+ * 	quadtree:	areas are quadtree leaves with at most a number of venues; neighbors are venues of touching leaves
+ * 	nearest:	the maxNeighbors nearest venues in the 3x3 cells
+ * 	popular:	the maxNeighbors venues with most check-ins in the 3x3 cells
+ * @author tndoan
+ *
+ */
+public class Neighborhood {
+
+	public enum Mode { BOX, RADIUS, QUADTREE, NEAREST, POPULAR }
+
+	private final Mode mode;
+
+	/**
+	 * size of grid cells in degree
+	 */
+	private final double scale;
+
+	/**
+	 * distance in meter of radius mode
+	 */
+	private final double radius;
+
+	/**
+	 * maximum number of venues of a leaf in quadtree mode, or maximum number of neighbors in nearest and popular mode
+	 */
+	private final int limit;
+
+	private Neighborhood(Mode mode, double scale, double radius, int limit) {
+		this.mode = mode;
+		this.scale = scale;
+		this.radius = radius;
+		this.limit = limit;
+	}
+
+	public static Neighborhood box(double scale) {
+		return new Neighborhood(Mode.BOX, scale, 0.0, 0);
+	}
+
+	public static Neighborhood radius(double scale, double radius) {
+		return new Neighborhood(Mode.RADIUS, scale, radius, 0);
+	}
+
+	public static Neighborhood quadtree(int maxVenuesPerArea) {
+		return new Neighborhood(Mode.QUADTREE, 0.0, 0.0, maxVenuesPerArea);
+	}
+
+	public static Neighborhood nearest(double scale, int maxNeighbors) {
+		return new Neighborhood(Mode.NEAREST, scale, 0.0, maxNeighbors);
+	}
+
+	public static Neighborhood popular(double scale, int maxNeighbors) {
+		return new Neighborhood(Mode.POPULAR, scale, 0.0, maxNeighbors);
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * build areas and neighbor graph
+	 * @param vInfo		location of venues; vInfo[i] is location of venue i
+	 * @param checkins	check-in matrix; popularity of venues in popular mode
+	 * @param areaList	list of areas which is filled by this function. Index of area is its position in list
+	 * @return			neighbor graph of venues
+	 */
+	public NeighborGraph build(PointObject[] vInfo, CheckinMatrix checkins, ArrayList<AreaObject> areaList) {
+		if (mode == Mode.QUADTREE)
+			return Utils.createNeighborsQuadtree(vInfo, areaList, limit);
+
+		NeighborGraph box = Utils.createNeighborsBox(vInfo, areaList, scale);
+		switch (mode) {
+		case RADIUS:
+			return Utils.createNeighborsRadius(vInfo, radius);
+		case NEAREST:
+			return Utils.createNeighborsCapped(vInfo, box, limit, null);
+		case POPULAR:
+			int[] popularity = new int[vInfo.length];
+			for (int vId = 0; vId < popularity.length; vId++)
+				popularity[vId] = checkins.totalCksOfVenue(vId);
+			return Utils.createNeighborsCapped(vInfo, box, limit, popularity);
+		default:
+			return box;
+		}
+	}
+}
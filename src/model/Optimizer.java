@@ -0,0 +1,55 @@
+package model;
+
+/**
+ * update rule of gradient ascent. It turns the gradient of one row (one user or one venue) into the step which is
+ * added to the factor of this row. Adaptive rules keep their state in primitive arrays with the same layout as the
+ * factor matrix (row-major, k values per row). Different rows can be updated by different threads at the same time.
+ *
+ * Rules: "sgd" (constant step), "adagrad", "rmsprop", "adam"
+ * @author tndoan
+ *
+ */
+public interface Optimizer {
+
+	/**
+	 * small value to avoid division by zero
+	 */
+	double EPSILON = 1e-8;
+
+	/**
+	 * replace gradient of row by the step which must be added to factor of row
+	 * @param row	index of row
+	 * @param grad	array contains gradient; the step is written back to it
+	 * @param off	position of gradient of row in grad
+	 */
+	void toStep(int row, double[] grad, int off);
+
+	/**
+	 *
+	 * @return	name of update rule
+	 */
+	String getName();
+
+	/**
+	 *
+	 * @param name			"sgd", "adagrad", "rmsprop" or "adam"
+	 * @param rows			number of rows (users or venues)
+	 * @param k				number of latent features
+	 * @param learningRate	learning rate
+	 * @return				optimizer whose state is initialized to 0
+	 */
+	static Optimizer create(String name, int rows, int k, double learningRate) {
+		switch (name) {
+		case "sgd":
+			return new SgdOptimizer(k, learningRate);
+		case "adagrad":
+			return new AdaGradOptimizer(rows, k, learningRate);
+		case "rmsprop":
+			return new RMSPropOptimizer(rows, k, learningRate, 0.9);
+		case "adam":
+			return new AdamOptimizer(rows, k, learningRate, 0.9, 0.999);
+		default:
+			throw new IllegalArgumentException("unknown optimizer: " + name);
+		}
+	}
+}
@@ -1,6 +1,6 @@
 package model;
 
-import object.AreaObject;
+import object.ScoreCache;
 import object.UserObject;
 import object.VenueObject;
 import utils.Function;
@@ -38,26 +38,24 @@ public class Prediction extends Model{
         int maxTopk = topk[topk.length - 1];
         double count = 0;
         int c = 0; int total = gt.keySet().size();
-        Set<String> vSet = new HashSet<>();
-        for (String uId : gt.keySet()) {
-            Set<String> v = gt.get(uId).keySet();
-            for (String vId : v)
-                if (venueMap.get(vId) != null)
-                    vSet.add(vId);
-        }
+        Set<String> vIdSet = new HashSet<>();
+        for (String uId : gt.keySet())
+            vIdSet.addAll(gt.get(uId).keySet());
+        int[] vSet = venueDict.toIndices(vIdSet);
 
         for (String userId : gt.keySet())
-            if (userMap.get(userId) != null)
+            if (userDict.getIndex(userId) >= 0)
                 count++;
 
-        System.out.println("vSet :" + vSet.size());
+        System.out.println("vSet :" + vSet.length);
 
         double[] result = new double[topk.length];
 
 //        gt.keySet().parallelStream().forEach(userId -> {
         for (String userId : gt.keySet()) {
             c++;
-            if (userMap.get(userId) == null) // if not in training set, ignore
+            int uId = userDict.getIndex(userId);
+            if (uId < 0) // if not in training set, ignore
                 return;
 
 //            System.out.println("user id:" + userId);
@@ -66,10 +64,16 @@ public class Prediction extends Model{
 
             long sTime = System.currentTimeMillis();
 
+            // candidates share neighbors so scores of this user are cached
+            double[] uFactor = userFactors.getRow(uId);
+            ScoreCache scores = venueScores.get();
+            scores.reset(uFactor);
+            scores.prefetch(vSet);
+
 //            vSet.parallelStream().forEach(venueId -> {
-            for (String venueId : vSet) {
-//            for (String venueId : venueMap.keySet()) {
-                double pred = calculatePredictedProb(userId, venueId);
+            for (int venueId : vSet) {
+//            for (int venueId = 0; venueId < venues.length; venueId++) {
+                double pred = calculatePredictedProb(uFactor, venueId, scores);
                 list.add(new PairObject(venueId, pred));
             }
 //            });
@@ -109,52 +113,32 @@ public class Prediction extends Model{
 
     /**
      * calculate the probability of check-in between user and venue
-     * @param uId   user id
-     * @param vId   venue id
-     * @return      probability of check-in between this pair of user and venue
+     * @param uFactor   latent factor of user
+     * @param vId       venue index
+     * @param scores    score cache which is reset with uFactor
+     * @return          probability of check-in between this pair of user and venue
      */
-    private double calculatePredictedProb(String uId, String vId) {
-        UserObject uo = userMap.get(uId);
-        VenueObject vo = venueMap.get(vId);
-
-        double[] uFactor = uo.getFactors();
-        AreaObject ao = areaMap.get(vo.getAreaId());
-        double[] aFactor = new double[k];
+    private double calculatePredictedProb(double[] uFactor, int vId, ScoreCache scores) {
+        VenueObject vo = venues[vId];
 
-        for (String nId : ao.getSetOfVenueIds()) {
-            double[] nFactor = venueMap.get(nId).getFactors();
-            aFactor = Function.plus(aFactor, nFactor);
-        }
-        double result = Math.log(Function.innerProduct(uFactor, aFactor));
+        double result = Math.log(areaFactors.dotArea(vo.getAreaId(), uFactor));
 
-        double lhs = Function.innerProduct(uFactor, vo.getFactors());
-        result += vo.getNeighbors().parallelStream().mapToDouble(nId -> {
-//        for (String nId : vo.getNeighbors()) {
-            double[] nFactor = venueMap.get(nId).getFactors();
-            double rhs = Function.innerProduct(uFactor, nFactor);
+        double lhs = scores.score(vId);
+        for (int pos = neighbors.begin(vId); pos < neighbors.end(vId); pos++) {
+            int nId = neighbors.target(pos);
+            if (nId == vId)
+                continue;
+            double rhs = scores.score(nId);
             double diff = lhs - rhs;
-            diff = Math.log(Function.logisticFunc(steepness, diff));
-
-//            result += diff;
-            return diff;
-        }).sum();
-
-//        for (String nId : vo.getNeighbors()) {
-//            double[] nFactor = venueMap.get(nId).getFactors();
-//            double rhs = Function.innerProduct(uFactor, nFactor);
-//            double diff = lhs - rhs;
-//            if (isSigmoid)
-//                diff = Math.log(Function.sigmoidFunction(diff));
-//            else
-//                diff = Math.log(Function.tanh1_2(diff));
-//
-//            result += diff;
-//        }
+            diff = Function.logLogisticFunc(steepness, diff);
+
+            result += diff;
+        }
 
         return result;
     }
 
-    private static ArrayList<String> topKVenues(List<PairObject> orig, int nummax) {
+    private ArrayList<String> topKVenues(List<PairObject> orig, int nummax) {
         Collections.sort(orig, new Comparator<PairObject>() {
 
             @Override
@@ -171,7 +155,7 @@ public class Prediction extends Model{
 
         ArrayList<String> result = new ArrayList<>();
         for (int i = 0; i < p.size(); i++)
-            result.add(p.get(i).venueId);
+            result.add(venueDict.getId(p.get(i).venueId));
         return result;
     }
 
@@ -191,7 +175,7 @@ public class Prediction extends Model{
                 String[] comp = line.split(" ");
                 String userId = comp[0];
                 double[] factors = Utils.fromString(line.substring(userId.length() + 1));
-                userMap.get(userId).setFactors(factors);
+                userFactors.setRow(userDict.getIndex(userId), factors);
                 line = br.readLine();
             }
 
@@ -200,10 +184,11 @@ public class Prediction extends Model{
                 String[] comp = line.split(" ");
                 String vId = comp[0];
                 double[] factors = Utils.fromString(line.substring(vId.length() + 1));
-                venueMap.get(vId).setFactors(factors);
+                venueFactors.setRow(venueDict.getIndex(vId), factors);
                 line = br.readLine();
             }
         }
+        areaFactors.rebuild();
     }
 
     private void parseFirstLine(String line) {
@@ -278,10 +263,10 @@ public class Prediction extends Model{
 }
 
 class PairObject {
-    String venueId;
+    int venueId;
     double cks;
 
-    public PairObject(String venueId, double cks) {
+    public PairObject(int venueId, double cks) {
         this.venueId = venueId;
         this.cks = cks;
     }
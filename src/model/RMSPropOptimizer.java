@@ -0,0 +1,45 @@
+package model;
+
+/**
+ * RMSProp: like AdaGrad but the squared gradients are averaged with exponential decay so steps do not vanish
+ * @author tndoan
+ *
+ */
+public class RMSPropOptimizer implements Optimizer {
+
+	private final int k;
+
+	private final double learningRate;
+
+	/**
+	 * decay of average of squared gradients
+	 */
+	private final double rho;
+
+	/**
+	 * moving average of squared gradients; same layout as factor matrix
+	 */
+	private final double[] meanSqrGrad;
+
+	public RMSPropOptimizer(int rows, int k, double learningRate, double rho) {
+		this.k = k;
+		this.learningRate = learningRate;
+		this.rho = rho;
+		this.meanSqrGrad = new double[rows * k];
+	}
+
+	@Override
+	public void toStep(int row, double[] grad, int off) {
+		int s = row * k;
+		for (int i = 0; i < k; i++) {
+			double g = grad[off + i];
+			meanSqrGrad[s + i] = rho * meanSqrGrad[s + i] + (1.0 - rho) * g * g;
+			grad[off + i] = learningRate * g / (Math.sqrt(meanSqrGrad[s + i]) + EPSILON);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "rmsprop";
+	}
+}
@@ -0,0 +1,29 @@
+package model;
+
+/**
+ * constant step: step = learningRate * gradient
+ * @author tndoan
+ *
+ */
+public class SgdOptimizer implements Optimizer {
+
+	private final int k;
+
+	private final double learningRate;
+
+	public SgdOptimizer(int k, double learningRate) {
+		this.k = k;
+		this.learningRate = learningRate;
+	}
+
+	@Override
+	public void toStep(int row, double[] grad, int off) {
+		for (int i = off; i < off + k; i++)
+			grad[i] *= learningRate;
+	}
+
+	@Override
+	public String getName() {
+		return "sgd";
+	}
+}
@@ -0,0 +1,26 @@
+package model;
+
+/**
+ * vectors of one gradient step of a check-in pair: copy of the user factor and gradients of user and venue.
+ * It is a scratch buffer, one per thread, so a step allocates nothing
+ * @author tndoan
+ *
+ */
+class StepBuffer {
+
+	final double[] uFactor;
+
+	final double[] uGrad;
+
+	final double[] vGrad;
+
+	/**
+	 *
+	 * @param k	number of latent factors
+	 */
+	StepBuffer(int k) {
+		this.uFactor = new double[k];
+		this.uGrad = new double[k];
+		this.vGrad = new double[k];
+	}
+}
@@ -0,0 +1,191 @@
+package model;
+
+import object.AreaFactorCache;
+import object.AreaObject;
+import object.CheckinMatrix;
+import object.NeighborGraph;
+
+/**
+ * DSGD style schedule of check-in pairs for parallel stochastic gradient descend on grid areas.
+ * A step of pair (u, v) writes the factor of u, the factor of v and the sum of the area of v; it reads factors of
+ * venues in the 3x3 cells around the cell of v. Two cells whose rows or columns differ by at least 2 do not
+ * interact, so cells are colored like a 2x2 checkerboard and cells of the same color are independent.
+ * Users are cut into B blocks and cells of each color into B blocks (B = number of threads), balanced by number of
+ * check-ins. Each color has B rounds; in round r thread t processes pairs whose user is in block t and whose cell is
+ * in block (t + r) mod B of this color. Threads of one round never write the same user, venue or area row, and no
+ * thread writes a venue that another thread reads, so updates are lock-free. The result is still not deterministic:
+ * factors of friends in the friendship regularization are read while other threads write them, and sampled
+ * neighbors (see Model.setNeighborSampling) are drawn from ThreadLocalRandom.
+ *
+ * Pairs of round r of color c for thread t are entry(p) for p in [begin(c * B + r, t), end(c * B + r, t))
+ * @author tndoan
+ *
+ */
+public class StratifiedSchedule {
+
+	public static final int NUM_COLORS = 4;
+
+	/**
+	 * number of blocks; also number of threads
+	 */
+	private final int numBlocks;
+
+	/**
+	 * entries of round r and block t are entries[offsets[r * numBlocks + t]..offsets[r * numBlocks + t + 1])
+	 */
+	private final int[] offsets;
+
+	/**
+	 * positions of check-ins in CSR of check-in matrix
+	 */
+	private final int[] entries;
+
+	/**
+	 * user of each check-in position
+	 */
+	private final int[] userOfEntry;
+
+	/**
+	 *
+	 * @param checkins		check-in matrix
+	 * @param areas			areas; all of them must be grid cells
+	 * @param areaFactors	area of each venue
+	 * @param numBlocks		number of blocks of users and of cells; it is the number of threads
+	 */
+	public StratifiedSchedule(CheckinMatrix checkins, AreaObject[] areas, AreaFactorCache areaFactors, int numBlocks) {
+		this.numBlocks = numBlocks;
+		int numUsers = checkins.getNumUsers();
+		int nnz = checkins.size();
+
+		// users are cut into blocks which have about the same number of check-ins
+		userOfEntry = new int[nnz];
+		int[] userBlock = new int[numUsers];
+		for (int uId = 0; uId < numUsers; uId++) {
+			userBlock[uId] = blockOf(checkins.userBegin(uId), nnz);
+			for (int p = checkins.userBegin(uId); p < checkins.userEnd(uId); p++)
+				userOfEntry[p] = uId;
+		}
+
+		// cells of each color are cut the same way
+		int[] totalOfColor = new int[NUM_COLORS];
+		int[] cksOfArea = new int[areas.length];
+		for (int aId = 0; aId < areas.length; aId++) {
+			for (int vId : areas[aId].getVenueIds())
+				cksOfArea[aId] += checkins.venueEnd(vId) - checkins.venueBegin(vId);
+			totalOfColor[colorOf(areas[aId])] += cksOfArea[aId];
+		}
+		int[] seen = new int[NUM_COLORS];
+		int[] cellBlock = new int[areas.length];
+		for (int aId = 0; aId < areas.length; aId++) {
+			int c = colorOf(areas[aId]);
+			cellBlock[aId] = blockOf(seen[c], Math.max(1, totalOfColor[c]));
+			seen[c] += cksOfArea[aId];
+		}
+
+		// counting sort of check-ins by (color, round, block). Entries of a stratum keep CSR order
+		int numStrata = NUM_COLORS * numBlocks * numBlocks;
+		int[] stratum = new int[nnz];
+		offsets = new int[numStrata + 1];
+		for (int p = 0; p < nnz; p++) {
+			int aId = areaFactors.areaOf(checkins.getVenue(p));
+			int t = userBlock[userOfEntry[p]];
+			int r = (cellBlock[aId] - t + numBlocks) % numBlocks;
+			stratum[p] = (colorOf(areas[aId]) * numBlocks + r) * numBlocks + t;
+			offsets[stratum[p] + 1]++;
+		}
+		for (int s = 0; s < numStrata; s++)
+			offsets[s + 1] += offsets[s];
+		entries = new int[nnz];
+		int[] next = new int[numStrata];
+		System.arraycopy(offsets, 0, next, 0, numStrata);
+		for (int p = 0; p < nnz; p++)
+			entries[next[stratum[p]]++] = p;
+	}
+
+	/**
+	 *
+	 * @param ao	area which is a grid cell
+	 * @return		color of its cell in 2x2 checkerboard
+	 */
+	private static int colorOf(AreaObject ao) {
+		return (ao.getRow() % 2) * 2 + ao.getCol() % 2;
+	}
+
+	/**
+	 *
+	 * @param prefix	number of check-ins before the item
+	 * @param total		total number of check-ins
+	 * @return			block of the item
+	 */
+	private int blockOf(long prefix, int total) {
+		return (int) Math.min(numBlocks - 1, prefix * numBlocks / Math.max(1, total));
+	}
+
+	public int getNumBlocks() {
+		return numBlocks;
+	}
+
+	/**
+	 *
+	 * @return	number of rounds of one epoch
+	 */
+	public int getNumRounds() {
+		return NUM_COLORS * numBlocks;
+	}
+
+	public int begin(int round, int block) {
+		return offsets[round * numBlocks + block];
+	}
+
+	public int end(int round, int block) {
+		return offsets[round * numBlocks + block + 1];
+	}
+
+	/**
+	 *
+	 * @param p	position between begin and end
+	 * @return	position of check-in in CSR of check-in matrix
+	 */
+	public int entry(int p) {
+		return entries[p];
+	}
+
+	/**
+	 *
+	 * @param entry	position of check-in in CSR of check-in matrix
+	 * @return		user of this check-in
+	 */
+	public int userOf(int entry) {
+		return userOfEntry[entry];
+	}
+
+	/**
+	 *
+	 * @param areas			all areas
+	 * @param graph			neighbor relation of venues
+	 * @param areaFactors	area of each venue
+	 * @return				true if all areas are grid cells and neighbors of each venue are in the 3x3 cells around
+	 * 						its cell, so that they can be scheduled
+	 */
+	public static boolean isApplicable(AreaObject[] areas, NeighborGraph graph, AreaFactorCache areaFactors) {
+		for (AreaObject ao : areas)
+			if (!ao.isGridCell())
+				return false;
+
+		// venues of a group share their list, so each list is checked once
+		boolean[] checked = new boolean[graph.getNumGroups()];
+		for (int v = 0; v < graph.getNumVenues(); v++) {
+			int g = graph.groupOf(v);
+			if (checked[g])
+				continue;
+			checked[g] = true;
+			AreaObject ao = areas[areaFactors.areaOf(v)];
+			for (int p = graph.begin(v); p < graph.end(v); p++) {
+				AreaObject no = areas[areaFactors.areaOf(graph.target(p))];
+				if (Math.abs(no.getRow() - ao.getRow()) > 1 || Math.abs(no.getCol() - ao.getCol()) > 1)
+					return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,154 @@
+package object;
+
+import java.util.stream.IntStream;
+
+/**
+ * factor of an area is the sum of latent factors of its venues. This cache keeps one k-vector per area so
+ * reading it costs O(k) instead of O(|area| * k). Every change of venue factors must go through this class
+ * (setVenue, addToVenue) so the sum of the area of the venue is updated by the same delta. If venue factors are
+ * changed directly in the venue matrix (e.g. parallel update of all venues), call rebuild() after that.
+ * Delta updates accumulate rounding errors, so rebuild() is also used from time to time to make sums exact again
+ * @author tndoan
+ *
+ */
+public class AreaFactorCache {
+
+	/**
+	 * latent factors of venues
+	 */
+	private final FactorMatrix venueFactors;
+
+	/**
+	 * row i is sum of factors of venues in area i
+	 */
+	private final FactorMatrix areaFactors;
+
+	/**
+	 * area index of each venue
+	 */
+	private final int[] areaOf;
+
+	/**
+	 * venues of each area
+	 */
+	private final AreaObject[] areas;
+
+	/**
+	 *
+	 * @param venueFactors	latent factors of venues
+	 * @param areas			area object of each area index. Each venue must be in exactly one area
+	 */
+	public AreaFactorCache(FactorMatrix venueFactors, AreaObject[] areas) {
+		this.venueFactors = venueFactors;
+		this.areas = areas;
+		this.areaFactors = new FactorMatrix(areas.length, venueFactors.getK());
+		this.areaOf = new int[venueFactors.getRows()];
+		for (AreaObject ao : areas)
+			for (int vId : ao.getVenueIds())
+				areaOf[vId] = ao.getIndex();
+		rebuild();
+	}
+
+	/**
+	 * recompute factors of all areas from venue factors. Areas are computed in parallel
+	 */
+	public void rebuild() {
+		int k = areaFactors.getK();
+		double[] data = areaFactors.getData();
+		IntStream.range(0, areas.length).parallel().forEach(aId -> {
+			int off = areaFactors.offset(aId);
+			for (int i = 0; i < k; i++)
+				data[off + i] = 0.0;
+			for (int vId : areas[aId].getVenueIds())
+				venueFactors.accumulateRow(vId, 1.0, data, off);
+		});
+	}
+
+	public FactorMatrix getVenueFactors() {
+		return venueFactors;
+	}
+
+	public FactorMatrix getAreaFactors() {
+		return areaFactors;
+	}
+
+	/**
+	 *
+	 * @param vId	venue index
+	 * @return		area index of venue
+	 */
+	public int areaOf(int vId) {
+		return areaOf[vId];
+	}
+
+	/**
+	 *
+	 * @param aId	area index
+	 * @param x		vector whose length is k
+	 * @return		inner product of factor of area and x
+	 */
+	public double dotArea(int aId, double[] x) {
+		return areaFactors.dotRow(aId, x);
+	}
+
+	/**
+	 * acc = acc + t * factor of area
+	 * @param aId	area index
+	 * @param t		scalar value
+	 * @param acc	vector whose length is k
+	 */
+	public void accumulateArea(int aId, double t, double[] acc) {
+		areaFactors.accumulateRow(aId, t, acc);
+	}
+
+	/**
+	 * acc[accOff..accOff + k) = acc[accOff..accOff + k) + t * factor of area
+	 * @param aId		area index
+	 * @param t			scalar value
+	 * @param acc		array contains the accumulated vector
+	 * @param accOff	position of the accumulated vector in acc
+	 */
+	public void accumulateArea(int aId, double t, double[] acc, int accOff) {
+		areaFactors.accumulateRow(aId, t, acc, accOff);
+	}
+
+	/**
+	 * copy values to factor of venue and update sum of its area
+	 * @param vId		venue index
+	 * @param values	new latent factor of venue
+	 */
+	public void setVenue(int vId, double[] values) {
+		int k = venueFactors.getK();
+		double[] vData = venueFactors.getData();
+		double[] aData = areaFactors.getData();
+		int vOff = venueFactors.offset(vId);
+		int aOff = areaFactors.offset(areaOf[vId]);
+		for (int i = 0; i < k; i++) {
+			aData[aOff + i] += values[i] - vData[vOff + i];
+			vData[vOff + i] = values[i];
+		}
+	}
+
+	/**
+	 * factor of venue = factor of venue + t * x and the same delta is added to sum of its area
+	 * @param vId	venue index
+	 * @param t		scalar value
+	 * @param x		vector whose length is k
+	 */
+	public void addToVenue(int vId, double t, double[] x) {
+		venueFactors.addToRow(vId, t, x);
+		areaFactors.addToRow(areaOf[vId], t, x);
+	}
+
+	/**
+	 * factor of venue = factor of venue + t * x[xOff..xOff + k) and the same delta is added to sum of its area
+	 * @param vId	venue index
+	 * @param t		scalar value
+	 * @param x		array contains vector whose length is k
+	 * @param xOff	position of the vector in x
+	 */
+	public void addToVenue(int vId, double t, double[] x, int xOff) {
+		venueFactors.addToRow(vId, t, x, xOff);
+		areaFactors.addToRow(areaOf[vId], t, x, xOff);
+	}
+}
@@ -1,29 +1,78 @@
 package object;
 
-import java.util.Set;
-
 public class AreaObject {
 
 	private String id;
+
+	/**
+	 * dense index of area
+	 */
+	private int index;
 	
-	private Set<String> setOfVenueIds;
+	/**
+	 * index of venues which are in this area
+	 */
+	private int[] venueIds;
+	
+	/**
+	 * row and column of grid cell of this area; -1 if area is not a grid cell
+	 */
+	private int row;
+	
+	private int col;
 	
 	/**
 	 * construction for area object
 	 * @param id
-	 * @param setOfVenueIds
+	 * @param index
+	 * @param venueIds
 	 */
-	public AreaObject(String id, Set<String> setOfVenueIds){
+	public AreaObject(String id, int index, int[] venueIds){
+		this(id, index, venueIds, -1, -1);
+	}
+	
+	/**
+	 * construction for area which is a cell of a grid
+	 * @param id
+	 * @param index
+	 * @param venueIds
+	 * @param row		row of cell in grid
+	 * @param col		column of cell in grid
+	 */
+	public AreaObject(String id, int index, int[] venueIds, int row, int col){
 		this.id = id;
-		this.setOfVenueIds = setOfVenueIds;
+		this.index = index;
+		this.venueIds = venueIds;
+		this.row = row;
+		this.col = col;
 	}
 
 	public String getId() {
 		return id;
 	}
 
-	public Set<String> getSetOfVenueIds() {
-		return setOfVenueIds;
+	public int getIndex() {
+		return index;
+	}
+
+	public int[] getVenueIds() {
+		return venueIds;
+	}
+
+	public int getRow() {
+		return row;
+	}
+
+	public int getCol() {
+		return col;
+	}
+	
+	/**
+	 * 
+	 * @return	true if this area is a cell of a grid
+	 */
+	public boolean isGridCell() {
+		return row >= 0;
 	}
 	
 	/**
@@ -33,7 +82,7 @@ public class AreaObject {
 		StringBuffer sb = new StringBuffer();
 		sb.append("id:" + id + "\n");
 		sb.append("set of venues:" );
-		for (String venue : setOfVenueIds) {
+		for (int venue : venueIds) {
 			sb.append(venue + ",");
 		}
 		sb.append("\n");
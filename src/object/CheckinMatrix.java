@@ -0,0 +1,207 @@
+package object;
+
+import java.util.Arrays;
+
+/**
+ * immutable sparse matrix of number of check-ins between users and venues. It is stored twice with the same
+ * dense index: user-major (CSR) to get venues of a user and venue-major (CSC) to get users of a venue.
+ * Number of check-ins is read from the same position as the index, so there is no lookup in the hot loops.
+ *
+ * Check-ins of user u:
+ * 	for (int p = cks.userBegin(u); p < cks.userEnd(u); p++) { int v = cks.getVenue(p); int w = cks.getUserCks(p); }
+ * Check-ins of venue v:
+ * 	for (int q = cks.venueBegin(v); q < cks.venueEnd(v); q++) { int u = cks.getUser(q); int w = cks.getVenueCks(q); }
+ * @author tndoan
+ *
+ */
+public class CheckinMatrix {
+
+	private final int numUsers;
+
+	private final int numVenues;
+
+	/**
+	 * venues of user u are userVenues[userOffsets[u]..userOffsets[u + 1]), sorted by venue index
+	 */
+	private final int[] userOffsets;
+
+	private final int[] userVenues;
+
+	/**
+	 * userCks[p] is number of check-ins of entry userVenues[p]
+	 */
+	private final int[] userCks;
+
+	/**
+	 * users of venue v are venueUsers[venueOffsets[v]..venueOffsets[v + 1]), sorted by user index
+	 */
+	private final int[] venueOffsets;
+
+	private final int[] venueUsers;
+
+	/**
+	 * venueCks[q] is number of check-ins of entry venueUsers[q]
+	 */
+	private final int[] venueCks;
+
+	/**
+	 * build matrix from list of (user, venue, number of check-ins). If a pair is duplicated, the last entry wins,
+	 * like a map which is filled in the order of entries
+	 * @param numUsers	number of users
+	 * @param numVenues	number of venues
+	 * @param users		user index of each entry
+	 * @param venues	venue index of each entry
+	 * @param cks		number of check-ins of each entry
+	 * @param size		number of entries
+	 */
+	public CheckinMatrix(int numUsers, int numVenues, int[] users, int[] venues, int[] cks, int size) {
+		this.numUsers = numUsers;
+		this.numVenues = numVenues;
+
+		// bucket entries by user, then sort venues of each user. Key is venue index in the high bits and
+		// position of the entry in the low bits
+		int[] start = new int[numUsers + 1];
+		for (int i = 0; i < size; i++)
+			start[users[i] + 1]++;
+		for (int i = 0; i < numUsers; i++)
+			start[i + 1] += start[i];
+		long[] keys = new long[size];
+		int[] next = Arrays.copyOf(start, numUsers);
+		for (int i = 0; i < size; i++)
+			keys[next[users[i]]++] = ((long) venues[i] << 32) | i;
+
+		// merge duplicated pairs; entries of a pair are sorted by position, so the last one is kept
+		userOffsets = new int[numUsers + 1];
+		int[] v = new int[size];
+		int[] w = new int[size];
+		int nnz = 0;
+		for (int uId = 0; uId < numUsers; uId++) {
+			Arrays.sort(keys, start[uId], start[uId + 1]);
+			int first = nnz;
+			for (int p = start[uId]; p < start[uId + 1]; p++) {
+				int vId = (int) (keys[p] >>> 32);
+				int numCks = cks[(int) keys[p]];
+				if (nnz > first && v[nnz - 1] == vId) {
+					w[nnz - 1] = numCks;
+				} else {
+					v[nnz] = vId;
+					w[nnz] = numCks;
+					nnz++;
+				}
+			}
+			userOffsets[uId + 1] = nnz;
+		}
+		userVenues = Arrays.copyOf(v, nnz);
+		userCks = Arrays.copyOf(w, nnz);
+
+		// venue-major. Entries are visited by increasing user so users of each venue are sorted
+		venueOffsets = new int[numVenues + 1];
+		for (int p = 0; p < nnz; p++)
+			venueOffsets[userVenues[p] + 1]++;
+		for (int i = 0; i < numVenues; i++)
+			venueOffsets[i + 1] += venueOffsets[i];
+		venueUsers = new int[nnz];
+		venueCks = new int[nnz];
+		next = Arrays.copyOf(venueOffsets, numVenues);
+		for (int uId = 0; uId < numUsers; uId++) {
+			for (int p = userOffsets[uId]; p < userOffsets[uId + 1]; p++) {
+				int q = next[userVenues[p]]++;
+				venueUsers[q] = uId;
+				venueCks[q] = userCks[p];
+			}
+		}
+	}
+
+	public int getNumUsers() {
+		return numUsers;
+	}
+
+	public int getNumVenues() {
+		return numVenues;
+	}
+
+	/**
+	 *
+	 * @return	number of non-zero entries
+	 */
+	public int size() {
+		return userVenues.length;
+	}
+
+	public int userBegin(int u) {
+		return userOffsets[u];
+	}
+
+	public int userEnd(int u) {
+		return userOffsets[u + 1];
+	}
+
+	/**
+	 *
+	 * @param p	position between userBegin(u) and userEnd(u)
+	 * @return	venue index of this entry
+	 */
+	public int getVenue(int p) {
+		return userVenues[p];
+	}
+
+	/**
+	 *
+	 * @param p	position between userBegin(u) and userEnd(u)
+	 * @return	number of check-ins of this entry
+	 */
+	public int getUserCks(int p) {
+		return userCks[p];
+	}
+
+	public int venueBegin(int v) {
+		return venueOffsets[v];
+	}
+
+	public int venueEnd(int v) {
+		return venueOffsets[v + 1];
+	}
+
+	/**
+	 *
+	 * @param q	position between venueBegin(v) and venueEnd(v)
+	 * @return	user index of this entry
+	 */
+	public int getUser(int q) {
+		return venueUsers[q];
+	}
+
+	/**
+	 *
+	 * @param q	position between venueBegin(v) and venueEnd(v)
+	 * @return	number of check-ins of this entry
+	 */
+	public int getVenueCks(int q) {
+		return venueCks[q];
+	}
+
+	/**
+	 * get how many check-in user has done in venue. Hot loops should read the weight of the entry instead
+	 * @param u	user index
+	 * @param v	venue index
+	 * @return	number of check-in
+	 */
+	public int retrieveNumCks(int u, int v) {
+		int p = Arrays.binarySearch(userVenues, userOffsets[u], userOffsets[u + 1], v);
+		if (p < 0)
+			return 0;
+		return userCks[p];
+	}
+
+	/**
+	 *
+	 * @param v	venue index
+	 * @return	total number of check-ins of venue
+	 */
+	public int totalCksOfVenue(int v) {
+		int total = 0;
+		for (int q = venueOffsets[v]; q < venueOffsets[v + 1]; q++)
+			total += venueCks[q];
+		return total;
+	}
+}
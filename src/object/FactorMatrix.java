@@ -0,0 +1,217 @@
+package object;
+
+import java.util.Arrays;
+
+import utils.Function;
+
+/**
+ * latent factors of all users (or all venues) in one flat row-major array.
+ * Row i is the factor vector of entity whose index is i; it starts at offset(i) and has k elements
+ * @author tndoan
+ *
+ */
+public class FactorMatrix {
+
+	/**
+	 * number of latent features, length of each row
+	 */
+	private final int k;
+
+	/**
+	 * number of rows
+	 */
+	private final int rows;
+
+	/**
+	 * row-major storage of all rows
+	 */
+	private final double[] data;
+
+	/**
+	 *
+	 * @param rows	number of rows (users or venues)
+	 * @param k		number of latent features
+	 */
+	public FactorMatrix(int rows, int k) {
+		this.rows = rows;
+		this.k = k;
+		this.data = new double[rows * k];
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * backing array. Used by hot loops together with offset(row)
+	 * @return	row-major storage of all rows
+	 */
+	public double[] getData() {
+		return data;
+	}
+
+	/**
+	 *
+	 * @param row	index of row
+	 * @return		position of the first element of row in getData()
+	 */
+	public int offset(int row) {
+		return row * k;
+	}
+
+	/**
+	 *
+	 * @param row	index of row
+	 * @param i		index of feature
+	 * @return		i-th feature of row
+	 */
+	public double get(int row, int i) {
+		return data[row * k + i];
+	}
+
+	/**
+	 *
+	 * @param row	index of row
+	 * @param i		index of feature
+	 * @param value	new value of i-th feature of row
+	 */
+	public void set(int row, int i, double value) {
+		data[row * k + i] = value;
+	}
+
+	/**
+	 *
+	 * @param row	index of row
+	 * @return		copy of row
+	 */
+	public double[] getRow(int row) {
+		double[] result = new double[k];
+		System.arraycopy(data, row * k, result, 0, k);
+		return result;
+	}
+
+	/**
+	 * copy row into a buffer, so no array is allocated
+	 * @param row	index of row
+	 * @param out	buffer whose length is at least k
+	 * @return		out
+	 */
+	public double[] getRow(int row, double[] out) {
+		System.arraycopy(data, row * k, out, 0, k);
+		return out;
+	}
+
+	/**
+	 * copy values to row
+	 * @param row		index of row
+	 * @param values	new values of row
+	 */
+	public void setRow(int row, double[] values) {
+		assert (values.length == k);
+		System.arraycopy(values, 0, data, row * k, k);
+	}
+
+	/**
+	 *
+	 * @param row	index of row
+	 * @param x		vector whose length is k
+	 * @return		inner product of row and x
+	 */
+	public double dotRow(int row, double[] x) {
+		return Function.innerProduct(data, row * k, x, 0, k);
+	}
+
+	/**
+	 *
+	 * @param row	index of row
+	 * @param x		array contains vector whose length is k
+	 * @param xOff	position of the vector in x
+	 * @return		inner product of row and the vector
+	 */
+	public double dotRow(int row, double[] x, int xOff) {
+		return Function.innerProduct(data, row * k, x, xOff, k);
+	}
+
+	/**
+	 * inner products of x with many rows in one call, out[i] = row rows[i] . x
+	 * @param rows	index of rows
+	 * @param x		vector whose length is k
+	 * @param out	result; its length is at least rows.length
+	 */
+	public void dotRows(int[] rows, double[] x, double[] out) {
+		Function.innerProducts(x, 0, data, k, rows, out);
+	}
+
+	/**
+	 *
+	 * @param row1	index of the first row
+	 * @param row2	index of the second row
+	 * @return		square distance between two rows
+	 */
+	public double sqrDistanceRows(int row1, int row2) {
+		return Function.sqrDistance(data, row1 * k, data, row2 * k, k);
+	}
+
+	/**
+	 *
+	 * @param row	index of row
+	 * @return		square norm of row
+	 */
+	public double sqrNormRow(int row) {
+		int off = row * k;
+		return Function.innerProduct(data, off, data, off, k);
+	}
+
+	/**
+	 * acc = acc + t * row
+	 * @param row	index of row
+	 * @param t		scalar value
+	 * @param acc	vector whose length is k
+	 */
+	public void accumulateRow(int row, double t, double[] acc) {
+		Function.axpy(t, data, row * k, acc, 0, k);
+	}
+
+	/**
+	 * acc[accOff..accOff + k) = acc[accOff..accOff + k) + t * row
+	 * @param row		index of row
+	 * @param t			scalar value
+	 * @param acc		array contains the accumulated vector
+	 * @param accOff	position of the accumulated vector in acc
+	 */
+	public void accumulateRow(int row, double t, double[] acc, int accOff) {
+		Function.axpy(t, data, row * k, acc, accOff, k);
+	}
+
+	/**
+	 * row = row + t * x
+	 * @param row	index of row
+	 * @param t		scalar value
+	 * @param x		vector whose length is k
+	 */
+	public void addToRow(int row, double t, double[] x) {
+		Function.axpy(t, x, 0, data, row * k, k);
+	}
+
+	/**
+	 * row = row + t * x[xOff..xOff + k)
+	 * @param row	index of row
+	 * @param t		scalar value
+	 * @param x		array contains vector whose length is k
+	 * @param xOff	position of the vector in x
+	 */
+	public void addToRow(int row, double t, double[] x, int xOff) {
+		Function.axpy(t, x, xOff, data, row * k, k);
+	}
+
+	/**
+	 * set all elements to 0
+	 */
+	public void clear() {
+		Arrays.fill(data, 0.0);
+	}
+}
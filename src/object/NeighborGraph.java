@@ -0,0 +1,187 @@
+package object;
+
+import java.util.Arrays;
+
+/**
+ * neighbor relation of venues stored in compressed sparse row format.
+ * Venues are put into groups and each group has one list of venues in targets[offsets[g]..offsets[g + 1]).
+ * Neighbors of venue v are the venues in the list of its group except v itself. With the box neighborhood,
+ * a group is a cell and its list is all venues of the 3x3 surrounding cells, so it is shared by all venues
+ * of the cell instead of being copied for each venue. Without grouping, each venue is its own group.
+ *
+ * Iterate neighbors of v without allocation by
+ * 	for (int p = graph.begin(v); p < graph.end(v); p++) {
+ * 		int n = graph.target(p);
+ * 		if (n == v) continue;
+ * 		...
+ * 	}
+ * @author tndoan
+ *
+ */
+public class NeighborGraph {
+
+	/**
+	 * group of each venue; null if each venue is its own group
+	 */
+	private final int[] groupOf;
+
+	/**
+	 * list of group g is targets[offsets[g]..offsets[g + 1])
+	 */
+	private final int[] offsets;
+
+	/**
+	 * concatenated lists of all groups
+	 */
+	private final int[] targets;
+
+	/**
+	 * true if list of group of venue v contains v itself
+	 */
+	private final boolean containsSelf;
+
+	/**
+	 *
+	 * @param groupOf		group of each venue; null if each venue is its own group
+	 * @param offsets		list of group g is targets[offsets[g]..offsets[g + 1])
+	 * @param targets		concatenated lists of all groups
+	 * @param containsSelf	true if list of group of venue v contains v itself
+	 */
+	public NeighborGraph(int[] groupOf, int[] offsets, int[] targets, boolean containsSelf) {
+		this.groupOf = groupOf;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.containsSelf = containsSelf;
+	}
+
+	/**
+	 * make graph from list of neighbors of each venue. Each venue is its own group
+	 * @param neighbors	neighbors[v] is list of neighbors of venue v; it does not contain v
+	 * @param size		number of neighbors in neighbors[v]; null if it is neighbors[v].length
+	 * @return			graph
+	 */
+	public static NeighborGraph fromLists(int[][] neighbors, int[] size) {
+		int n = neighbors.length;
+		int[] offsets = new int[n + 1];
+		for (int v = 0; v < n; v++)
+			offsets[v + 1] = offsets[v] + (size == null ? neighbors[v].length : size[v]);
+
+		int[] targets = new int[offsets[n]];
+		for (int v = 0; v < n; v++)
+			System.arraycopy(neighbors[v], 0, targets, offsets[v], offsets[v + 1] - offsets[v]);
+
+		return new NeighborGraph(null, offsets, targets, false);
+	}
+
+	/**
+	 *
+	 * @param v	venue index
+	 * @return	group of venue
+	 */
+	public int groupOf(int v) {
+		return groupOf == null ? v : groupOf[v];
+	}
+
+	/**
+	 *
+	 * @param v	venue index
+	 * @return	position of the first candidate neighbor of v
+	 */
+	public int begin(int v) {
+		return offsets[groupOf(v)];
+	}
+
+	/**
+	 *
+	 * @param v	venue index
+	 * @return	position after the last candidate neighbor of v
+	 */
+	public int end(int v) {
+		return offsets[groupOf(v) + 1];
+	}
+
+	/**
+	 *
+	 * @param p	position between begin(v) and end(v)
+	 * @return	venue index at this position. It can be v itself, which is not a neighbor of v
+	 */
+	public int target(int p) {
+		return targets[p];
+	}
+
+	/**
+	 *
+	 * @param v	venue index
+	 * @return	number of neighbors of v
+	 */
+	public int degree(int v) {
+		int g = groupOf(v);
+		return offsets[g + 1] - offsets[g] - (containsSelf ? 1 : 0);
+	}
+
+	/**
+	 *
+	 * @return	number of groups
+	 */
+	public int getNumGroups() {
+		return offsets.length - 1;
+	}
+
+	/**
+	 *
+	 * @param g	group index
+	 * @return	position of the first venue in list of group
+	 */
+	public int groupBegin(int g) {
+		return offsets[g];
+	}
+
+	/**
+	 *
+	 * @param g	group index
+	 * @return	position after the last venue in list of group
+	 */
+	public int groupEnd(int g) {
+		return offsets[g + 1];
+	}
+
+	/**
+	 *
+	 * @return	total length of lists of all groups
+	 */
+	public int numPositions() {
+		return targets.length;
+	}
+
+	/**
+	 *
+	 * @return	true if list of group of venue v contains v itself
+	 */
+	public boolean containsSelf() {
+		return containsSelf;
+	}
+
+	/**
+	 *
+	 * @return	number of venues
+	 */
+	public int getNumVenues() {
+		return groupOf == null ? offsets.length - 1 : groupOf.length;
+	}
+
+	/**
+	 * copy neighbors of v to a new array. Hot loops should use begin/end/target instead
+	 * @param v	venue index
+	 * @return	array of neighbors of v
+	 */
+	public int[] getNeighbors(int v) {
+		int[] result = new int[degree(v)];
+		int m = 0;
+		for (int p = begin(v); p < end(v); p++) {
+			int n = targets[p];
+			if (n != v)
+				result[m++] = n;
+		}
+		return m == result.length ? result : Arrays.copyOf(result, m);
+	}
+}
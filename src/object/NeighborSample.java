@@ -0,0 +1,87 @@
+package object;
+
+import java.util.Arrays;
+
+/**
+ * neighbors of one venue which are used in one step, each with its weight. With all neighbors every weight is 1;
+ * with sampled neighbors the weight is the importance weight so that the weighted sum over the sample is an
+ * unbiased estimate of the sum over all neighbors. Buffers grow when needed and are reused, one object per thread
+ * @author tndoan
+ *
+ */
+public class NeighborSample {
+
+	private int[] ids;
+
+	private double[] weights;
+
+	private int size;
+
+	public NeighborSample() {
+		this.ids = new int[16];
+		this.weights = new double[16];
+		this.size = 0;
+	}
+
+	/**
+	 *
+	 * @return	number of neighbors in sample
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 *
+	 * @param i	position in sample
+	 * @return	venue index of i-th neighbor
+	 */
+	public int getId(int i) {
+		return ids[i];
+	}
+
+	/**
+	 *
+	 * @param i	position in sample
+	 * @return	weight of i-th neighbor
+	 */
+	public double getWeight(int i) {
+		return weights[i];
+	}
+
+	/**
+	 * remove all neighbors
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * add neighbor to sample
+	 * @param id		venue index of neighbor
+	 * @param weight	weight of neighbor
+	 */
+	public void add(int id, double weight) {
+		if (size == ids.length) {
+			ids = Arrays.copyOf(ids, 2 * size);
+			weights = Arrays.copyOf(weights, 2 * size);
+		}
+		ids[size] = id;
+		weights[size] = weight;
+		size++;
+	}
+
+	/**
+	 * put all neighbors of venue with weight 1
+	 * @param graph	neighbor graph
+	 * @param v		venue index
+	 */
+	public void fillAll(NeighborGraph graph, int v) {
+		clear();
+		for (int p = graph.begin(v); p < graph.end(v); p++) {
+			int n = graph.target(p);
+			if (n != v)
+				add(n, 1.0);
+		}
+	}
+}
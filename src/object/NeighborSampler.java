@@ -0,0 +1,119 @@
+package object;
+
+import java.util.Random;
+
+/**
+ * draw a fixed number of neighbors of a venue, with replacement, uniformly or proportional to popularity of
+ * neighbors. Each drawn neighbor n gets importance weight 1 / (m * q(n)) where m is number of draws and q(n) is
+ * probability of drawing n, so the weighted sum over the sample is an unbiased estimate of the sum over all
+ * neighbors. If a venue has no more neighbors than m, all of them are taken with weight 1 (exact)
+ * @author tndoan
+ *
+ */
+public class NeighborSampler {
+
+	private final NeighborGraph graph;
+
+	/**
+	 * number of draws for each venue
+	 */
+	private final int numSamples;
+
+	/**
+	 * popularity of each venue; null for uniform sampling
+	 */
+	private final double[] popularity;
+
+	/**
+	 * cumulative popularity inside list of each group: cumulative[p] is sum of popularity of targets from the
+	 * beginning of the group to p (inclusive). null for uniform sampling
+	 */
+	private final double[] cumulative;
+
+	/**
+	 *
+	 * @param graph			neighbor graph
+	 * @param numSamples	number of draws for each venue
+	 * @param popularity	popularity of each venue, must be positive; null for uniform sampling
+	 */
+	public NeighborSampler(NeighborGraph graph, int numSamples, double[] popularity) {
+		this.graph = graph;
+		this.numSamples = numSamples;
+		this.popularity = popularity;
+		if (popularity == null) {
+			this.cumulative = null;
+		} else {
+			this.cumulative = new double[graph.numPositions()];
+			for (int g = 0; g < graph.getNumGroups(); g++) {
+				double sum = 0.0;
+				for (int p = graph.groupBegin(g); p < graph.groupEnd(g); p++) {
+					sum += popularity[graph.target(p)];
+					cumulative[p] = sum;
+				}
+			}
+		}
+	}
+
+	public int getNumSamples() {
+		return numSamples;
+	}
+
+	/**
+	 *
+	 * @return	true if neighbors are drawn by popularity
+	 */
+	public boolean isByPopularity() {
+		return popularity != null;
+	}
+
+	/**
+	 * draw neighbors of venue
+	 * @param v			venue index
+	 * @param rand		random generator of the calling thread
+	 * @param sample	result
+	 */
+	public void sample(int v, Random rand, NeighborSample sample) {
+		int degree = graph.degree(v);
+		if (degree <= numSamples) {
+			sample.fillAll(graph, v);
+			return;
+		}
+
+		sample.clear();
+		int begin = graph.begin(v), end = graph.end(v);
+		if (popularity == null) {
+			double weight = (double) degree / numSamples;
+			while (sample.size() < numSamples) {
+				int n = graph.target(begin + rand.nextInt(end - begin));
+				if (n != v) // v itself is not a neighbor, draw again
+					sample.add(n, weight);
+			}
+		} else {
+			// list of the group may contain v which is drawn but rejected
+			double groupTotal = cumulative[end - 1];
+			double total = groupTotal - (graph.containsSelf() ? popularity[v] : 0.0);
+			while (sample.size() < numSamples) {
+				int p = search(begin, end, rand.nextDouble() * groupTotal);
+				int n = graph.target(p);
+				if (n != v)
+					sample.add(n, total / (numSamples * popularity[n]));
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return	first position p in [begin, end) whose cumulative popularity is greater than r
+	 */
+	private int search(int begin, int end, double r) {
+		int lo = begin, hi = end - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (cumulative[mid] > r)
+				hi = mid;
+			else
+				lo = mid + 1;
+		}
+		return lo;
+	}
+}
@@ -0,0 +1,84 @@
+package object;
+
+import java.util.Arrays;
+
+/**
+ * lazily computed inner products between one query vector (e.g. factor of a user) and rows of a factor matrix
+ * (e.g. factors of venues). Score of a row is computed the first time it is asked and served from the cache
+ * after that, until the next reset. Overlapping neighborhoods of check-in venues ask the same score many times.
+ * It is not thread-safe, each thread should have its own cache. Factors must not change between reset and the
+ * last call of score.
+ * @author tndoan
+ *
+ */
+public class ScoreCache {
+
+	/**
+	 * factors whose rows are scored
+	 */
+	private final FactorMatrix factors;
+
+	/**
+	 * scores[row] is valid if stamps[row] == stamp
+	 */
+	private final double[] scores;
+
+	private final int[] stamps;
+
+	private int stamp;
+
+	/**
+	 * current query vector
+	 */
+	private double[] query;
+
+	/**
+	 *
+	 * @param factors	factors whose rows are scored
+	 */
+	public ScoreCache(FactorMatrix factors) {
+		this.factors = factors;
+		this.scores = new double[factors.getRows()];
+		this.stamps = new int[factors.getRows()];
+		this.stamp = 0;
+	}
+
+	/**
+	 * forget all scores and use new query vector. It costs O(1)
+	 * @param query	vector whose length is k. It is not copied, so caller must not change it while using the cache
+	 */
+	public void reset(double[] query) {
+		this.query = query;
+		stamp++;
+		if (stamp == 0) { // overflow, all old stamps become ambiguous
+			Arrays.fill(stamps, 0);
+			stamp = 1;
+		}
+	}
+
+	/**
+	 * compute scores of many rows in one batch. Rows whose scores are already cached are computed again
+	 * @param rows	index of rows
+	 */
+	public void prefetch(int[] rows) {
+		double[] out = new double[rows.length];
+		factors.dotRows(rows, query, out);
+		for (int i = 0; i < rows.length; i++) {
+			scores[rows[i]] = out[i];
+			stamps[rows[i]] = stamp;
+		}
+	}
+
+	/**
+	 *
+	 * @param row	index of row
+	 * @return		inner product of row and query vector
+	 */
+	public double score(int row) {
+		if (stamps[row] != stamp) {
+			scores[row] = factors.dotRow(row, query);
+			stamps[row] = stamp;
+		}
+		return scores[row];
+	}
+}
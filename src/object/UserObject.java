@@ -1,86 +1,76 @@
 package object;
 
-import java.lang.reflect.Array;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Random;
-import java.util.Set;
 
 public class UserObject {
 	
 	/**
-	 * checkin map whose key is venue id, value is number of check-in that user has made in this venue
+	 * latent factors of all users. Factor of this user is the row whose index is index of user
 	 */
-	private HashMap<String, Integer> checkinMap;
+	private FactorMatrix factors;
 	
 	/**
-	 * latent factor vector
+	 * index of his friends
 	 */
-	private double[] factors;
-	
-	private ArrayList<String> listOfFriends;
+	private int[] listOfFriends;
 	
 	/**
 	 * 
-	 * @return	list of id of his friends
+	 * @return	list of index of his friends
 	 */
-	public ArrayList<String> getListOfFriends() {
+	public int[] getListOfFriends() {
 		return listOfFriends;
 	}
 	
+	/**
+	 * 
+	 * @return	copy of latent factor vector
+	 */
 	public double[] getFactors() {
-		return factors;
+		return factors.getRow(index);
 	}
 
+	/**
+	 * 
+	 * @param factors	new latent factor vector. It is copied to factor matrix
+	 */
 	public void setFactors(double[] factors) {
-		this.factors = factors;
+		this.factors.setRow(index, factors);
 	}
 
 	/**
 	 * id of user
 	 */
 	private String id;
-	
+
 	/**
-	 * get how many check-in user has done in this venue
-	 * @param vIds	venue id
-	 * @return		number of check-in
+	 * dense index of user
 	 */
-	public int retrieveNumCks(String vIds){
-		Integer num = checkinMap.get(vIds);
-		if (num == null)
-			return 0;
-		else
-			return num;
-	}
-
+	private int index;
+	
 	public String getId() {
 		return id;
 	}
 
+	public int getIndex() {
+		return index;
+	}
+
 	/**
 	 *
 	 * @param id			id of user
-	 * @param checkinMap	check-in map of user
-	 * @param lOfFriends	friend of user
-	 * @param k				# of latent features
+	 * @param index			dense index of user
+	 * @param lOfFriends	index of friends of user
+	 * @param factors		factor matrix of users. Row of this user is initialized randomly
 	 */
-	public UserObject(String id, HashMap<String, Integer> checkinMap, ArrayList<String> lOfFriends, int k){
+	public UserObject(String id, int index, int[] lOfFriends, FactorMatrix factors){
 		this.id = id;
-		this.checkinMap = checkinMap;
-		this.factors = new double[k];
+		this.index = index;
+		this.factors = factors;
 		this.listOfFriends = lOfFriends;
 		
 		Random generator = new Random();
-		for (int i = 0; i < k; i++)
-			this.factors[i] = generator.nextDouble();
-	}
-	
-	/**
-	 * 
-	 * @return the set of venue id where user has done check-in
-	 */
-	public Set<String> getAllVenues() {
-		return checkinMap.keySet();
+		for (int i = 0; i < factors.getK(); i++)
+			factors.set(index, i, generator.nextDouble());
 	}
 }
@@ -1,8 +1,6 @@
 package object;
 
-import java.util.ArrayList;
 import java.util.Random;
-import java.util.Set;
 
 /**
  * 
@@ -11,39 +9,53 @@ import java.util.Set;
  */
 public class VenueObject {
 	
-	public VenueObject(String id, int totalCks,	PointObject location, Set<String> neighbors, ArrayList<String> userIds, int k){
+	/**
+	 * make venue with random factor. Factor row is written directly, so sums of areas are not updated; they must be
+	 * rebuilt after all venues are made
+	 */
+	public VenueObject(String id, int index, int totalCks, PointObject location, AreaFactorCache factors){
 		this.id = id;
+		this.index = index;
 		this.location = location;
-		this.neighbors = neighbors;
-		this.userIds = userIds;
 		this.totalCks = totalCks;
 		this.isSetArea = false;
 		
+		this.factors = factors;
+		
 		Random generator = new Random();
-		this.factors = new double[k];
-		for (int i = 0; i < k; i++)
-			this.factors[i] = generator.nextDouble() + 1.0;
+		double[] init = new double[factors.getVenueFactors().getK()];
+		for (int i = 0; i < init.length; i++)
+			init[i] = generator.nextDouble() + 1.0;
+		factors.getVenueFactors().setRow(index, init);
 	}
 	
 	/**
-	 * latent factor vector
+	 * latent factors of all venues and sums of areas. Factor of this venue is the row whose index is index of venue
 	 */
-	private double[] factors;
+	private AreaFactorCache factors;
 	
+	/**
+	 * 
+	 * @return	copy of latent factor vector
+	 */
 	public double[] getFactors() {
-		return factors;
+		return factors.getVenueFactors().getRow(index);
 	}
 
+	/**
+	 * 
+	 * @param factors	new latent factor vector. It is copied to factor matrix and the area sum is updated
+	 */
 	public void setFactors(double[] factors) {
-		this.factors = factors;
+		this.factors.setVenue(index, factors);
 	}
 	
 	private boolean isSetArea;
 	
 	/**
-	 * indicate the area id that this venue is belong to
+	 * indicate the index of area that this venue is belong to
 	 */
-	private String areaId;
+	private int areaId;
 	
 	/**
 	 * total number of check-in that it has
@@ -61,14 +73,10 @@ public class VenueObject {
 	private String id;
 	
 	/**
-	 * list of id of neighbors
+	 * dense index of venue
 	 */
-	private Set<String> neighbors;
+	private int index;
 	
-	/**
-	 * list of user ids who have check-in in this venue
-	 */
-	private ArrayList<String> userIds;
 
 	public PointObject getLocation() {
 		return location;
@@ -78,19 +86,15 @@ public class VenueObject {
 		return id;
 	}
 
-	public Set<String> getNeighbors() {
-		return neighbors;
-	}
-
-	public ArrayList<String> getUserIds() {
-		return userIds;
+	public int getIndex() {
+		return index;
 	}
 
 	public int getTotalCks() {
 		return totalCks;
 	}
 
-	public String getAreaId() {
+	public int getAreaId() {
 		return areaId;
 	}
 
@@ -98,7 +102,7 @@ public class VenueObject {
 	 * can set area id for venue one time. The second time will be ignored.
 	 * @param areaId
 	 */
-	public void setAreaId(String areaId) {
+	public void setAreaId(int areaId) {
 		// if not set area, set it
 		// otherwise, ignore
 		if (this.isSetArea == false) {
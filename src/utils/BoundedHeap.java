@@ -0,0 +1,97 @@
+package utils;
+
+/**
+ * keeps the capacity items with the smallest keys among all offered items. It is a max-heap on primitive arrays, so
+ * offering an item costs O(log capacity) and nothing is allocated after construction. Call clear() to reuse it
+ * @author tndoan
+ *
+ */
+public class BoundedHeap {
+
+	private final double[] keys;
+
+	private final int[] ids;
+
+	private int size;
+
+	/**
+	 *
+	 * @param capacity	maximum number of items
+	 */
+	public BoundedHeap(int capacity) {
+		this.keys = new double[capacity];
+		this.ids = new int[capacity];
+		this.size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * add item if it is one of the capacity smallest items so far
+	 * @param key	key of item
+	 * @param id	id of item
+	 */
+	public void offer(double key, int id) {
+		if (size < keys.length) {
+			// sift up
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1) / 2;
+				if (keys[parent] >= key)
+					break;
+				keys[i] = keys[parent];
+				ids[i] = ids[parent];
+				i = parent;
+			}
+			keys[i] = key;
+			ids[i] = id;
+		} else if (size > 0 && key < keys[0]) {
+			// replace the largest item
+			siftDown(key, id);
+		}
+	}
+
+	/**
+	 * remove all items
+	 * @return	ids of items in increasing order of keys
+	 */
+	public int[] drainSorted() {
+		int[] result = new int[size];
+		while (size > 0) {
+			result[size - 1] = ids[0];
+			// move the last item to the root
+			size--;
+			siftDown(keys[size], ids[size]);
+		}
+		return result;
+	}
+
+	/**
+	 * put item at the root and move it down until the heap order holds
+	 * @param key	key of item
+	 * @param id	id of item
+	 */
+	private void siftDown(double key, int id) {
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size)
+				break;
+			if (child + 1 < size && keys[child + 1] > keys[child])
+				child++;
+			if (keys[child] <= key)
+				break;
+			keys[i] = keys[child];
+			ids[i] = ids[child];
+			i = child;
+		}
+		keys[i] = key;
+		ids[i] = id;
+	}
+}
@@ -44,4 +44,64 @@ public class Distance {
 
 	    return (double) AVERAGE_RADIUS_OF_EARTH * c * 1000.0;   
 	}
+	
+	/**
+	 * haversine on coordinates in radian with precomputed cosine of latitudes
+	 * @param lat1		latitude of point 1 (radian)
+	 * @param lng1		longitude of point 1 (radian)
+	 * @param cosLat1	cosine of lat1
+	 * @param lat2		latitude of point 2 (radian)
+	 * @param lng2		longitude of point 2 (radian)
+	 * @param cosLat2	cosine of lat2
+	 * @return			haversine of the central angle, i.e. sin^2(angle / 2). It increases with distance, so
+	 * 					comparing it with sin^2(d / 2R) avoids atan2 and sqrt
+	 */
+	public static double haversine(double lat1, double lng1, double cosLat1, double lat2, double lng2, double cosLat2) {
+		double sLat = Math.sin((lat1 - lat2) / 2);
+		double sLng = Math.sin((lng1 - lng2) / 2);
+		return sLat * sLat + cosLat1 * cosLat2 * sLng * sLng;
+	}
+	
+	/**
+	 * 
+	 * @param h		haversine of the central angle
+	 * @return		distance in meter
+	 */
+	public static double haversineToMeter(double h) {
+		return AVERAGE_RADIUS_OF_EARTH * 2 * Math.atan2(Math.sqrt(h), Math.sqrt(1 - h)) * 1000.0;
+	}
+	
+	/**
+	 * square of the equirectangular approximation of the central angle: the earth is projected on a plane at the mean
+	 * latitude of the two points. Longitude difference is wrapped into [-pi, pi]. For points at most 100 km apart and
+	 * latitudes within +-80 degree its relative error is below 1e-3 (it grows with distance^2 and toward the poles)
+	 * @param lat1		latitude of point 1 (radian)
+	 * @param lng1		longitude of point 1 (radian)
+	 * @param cosLat1	cosine of lat1
+	 * @param lat2		latitude of point 2 (radian)
+	 * @param lng2		longitude of point 2 (radian)
+	 * @param cosLat2	cosine of lat2
+	 * @return			square of approximate central angle (radian^2)
+	 */
+	public static double equirectangularSq(double lat1, double lng1, double cosLat1, 
+			double lat2, double lng2, double cosLat2) {
+		double dLng = wrap(lng1 - lng2);
+		// mean of cosines instead of cosine of mean latitude; they differ by a factor cos(dLat / 2)
+		double x = dLng * 0.5 * (cosLat1 + cosLat2);
+		double y = lat1 - lat2;
+		return x * x + y * y;
+	}
+	
+	/**
+	 * 
+	 * @param dLng	difference of longitudes (radian) in [-2pi, 2pi]
+	 * @return		the same difference in [-pi, pi]
+	 */
+	public static double wrap(double dLng) {
+		if (dLng > Math.PI)
+			return dLng - 2 * Math.PI;
+		if (dLng < -Math.PI)
+			return dLng + 2 * Math.PI;
+		return dLng;
+	}
 }
@@ -0,0 +1,28 @@
+package utils;
+
+/**
+ * java.lang.Math. It is the reference implementation of LogisticKernels. Log of logistic function is computed as
+ * -softplus(-z) = -(max(-z, 0) + log1p(e^(-|z|))) so it does not become -Infinity for large negative z
+ * @author tndoan
+ *
+ */
+public class ExactLogisticKernels implements LogisticKernels {
+
+	@Override
+	public String getName() {
+		return "exact";
+	}
+
+	@Override
+	public double logistic(double a, double x) {
+		return 1.0 / (1.0 + Math.exp(-a * x));
+	}
+
+	@Override
+	public double logLogistic(double a, double x) {
+		double z = a * x;
+		if (z >= 0.0)
+			return -Math.log1p(Math.exp(-z));
+		return z - Math.log1p(Math.exp(z));
+	}
+}
@@ -6,6 +6,32 @@ package utils;
  *
  */
 public class Function {
+	/**
+	 * implementation of vector operations; chosen by system property "kernels" (see VectorKernels)
+	 */
+	private static final VectorKernels KERNELS = VectorKernels.create();
+	
+	/**
+	 * 
+	 * @return	implementation of vector operations in use
+	 */
+	public static VectorKernels getKernels() {
+		return KERNELS;
+	}
+
+	/**
+	 * implementation of logistic functions; chosen by system property "logistic" (see LogisticKernels)
+	 */
+	private static final LogisticKernels LOGISTIC = LogisticKernels.create();
+
+	/**
+	 *
+	 * @return	implementation of logistic functions in use
+	 */
+	public static LogisticKernels getLogistic() {
+		return LOGISTIC;
+	}
+
 	/**
 	 * calculate the sigmoid function of x
 	 * 
@@ -13,8 +39,7 @@ public class Function {
 	 * @return
 	 */
 	public static double sigmoidFunction(double x) {
-		double result = 1.0 / (1.0 + Math.exp(-x));
-		return result;
+		return LOGISTIC.logistic(1.0, x);
 	}
 	
 	/**
@@ -88,11 +113,70 @@ public class Function {
 		assert (v1.length == v2.length);
 		
 //		double result = IntStream.range(0, length).mapToDouble(i -> v1[i] * v2[i]).sum(); // it is slower than using for :(
-		double result = 0.0;
-		for (int i = 0; i < length; i++)
-			result += v1[i] * v2[i];
-		
-		return result;
+		return KERNELS.dot(v1, 0, v2, 0, length);
+	}
+	
+	/**
+	 * calculate the inner product of two vectors which are stored inside bigger arrays
+	 * @param v1		array contains the first vector
+	 * @param off1		position of the first vector in v1
+	 * @param v2		array contains the second vector
+	 * @param off2		position of the second vector in v2
+	 * @param length	length of vectors
+	 * @return
+	 */
+	public static double innerProduct(double[] v1, int off1, double[] v2, int off2, int length) {
+		return KERNELS.dot(v1, off1, v2, off2, length);
+	}
+	
+	/**
+	 * calculate the square distance of two vectors which are stored inside bigger arrays
+	 * @param v1		array contains the first vector
+	 * @param off1		position of the first vector in v1
+	 * @param v2		array contains the second vector
+	 * @param off2		position of the second vector in v2
+	 * @param length	length of vectors
+	 * @return			||v1 - v2||^2
+	 */
+	public static double sqrDistance(double[] v1, int off1, double[] v2, int off2, int length) {
+		return KERNELS.sqrDistance(v1, off1, v2, off2, length);
+	}
+	
+	/**
+	 * inner products of one vector with many rows of a row-major matrix, out[i] = x . row rows[i]
+	 * @param x		array contains vector x whose length is k
+	 * @param xOff	position of x
+	 * @param data	row-major matrix
+	 * @param k		length of each row
+	 * @param rows	index of rows
+	 * @param out	result; its length is at least rows.length
+	 */
+	public static void innerProducts(double[] x, int xOff, double[] data, int k, int[] rows, double[] out) {
+		KERNELS.dotRows(x, xOff, data, k, rows, out);
+	}
+	
+	/**
+	 * y = y + t * x. No array is allocated
+	 * @param t		scalar value
+	 * @param x		vector
+	 * @param y		vector which is updated in place
+	 */
+	public static void axpy(double t, double[] x, double[] y) {
+		assert(x.length == y.length);
+		axpy(t, x, 0, y, 0, x.length);
+	}
+	
+	/**
+	 * y = y + t * x where x and y are stored inside bigger arrays. No array is allocated
+	 * @param t			scalar value
+	 * @param x			array contains vector x
+	 * @param offX		position of x
+	 * @param y			array contains vector y which is updated in place
+	 * @param offY		position of y
+	 * @param length	length of vectors
+	 */
+	public static void axpy(double t, double[] x, int offX, double[] y, int offY, int length) {
+		KERNELS.axpy(t, x, offX, y, offY, length);
 	}
 	
 	/**
@@ -104,15 +188,6 @@ public class Function {
 		return innerProduct(u, u);
 	}
 
-	/**
-	 * calculate the value of (tanh(x) + 1) / 2
-	 * @param x
-	 * @return		value of function
-	 */
-	public static double tanh1_2(double x) {
-		return 1.0 / (1.0 + Math.exp(-2.0 * x));
-	}
-
 	/**
 	 * return the logistic function whose midpoint = 0
 	 * it is the general case of Sigmoid and tanh
@@ -123,6 +198,17 @@ public class Function {
 	 * @return	logistic function
 	 */
 	public static double logisticFunc(double a, double x) {
-		return 1.0 / (1.0 + Math.exp(-a * x));
+		return LOGISTIC.logistic(a, x);
+	}
+
+	/**
+	 * log of logistic function. Unlike Math.log(logisticFunc(a, x)) it does not lose precision and does not
+	 * return -Infinity for large negative a * x
+	 * @param a	steepness of logistic function
+	 * @param x	variable
+	 * @return	log of logistic function
+	 */
+	public static double logLogisticFunc(double a, double x) {
+		return LOGISTIC.logLogistic(a, x);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,173 @@
+package utils;
+
+import java.util.Arrays;
+
+import object.PointObject;
+
+/**
+ * uniform grid over latitude and longitude which answers radius queries. Cells are radius wide in latitude
+ * (and the same number of degrees in longitude). Points are sorted by (row, column) so the points of a run of cells
+ * in one row are contiguous and found by binary search; only non-empty cells cost memory.
+ * A query visits the cells of the bounding box of the circle and passes the points of each run of cells to the batch
+ * radius test of LatLngArray (box filter, equirectangular approximation, haversine for borderline pairs).
+ * Building costs O(n log n); a query costs O(rows * log n + candidates)
+ * @author tndoan
+ *
+ */
+public class GridIndex {
+
+	/**
+	 * location of each point
+	 */
+	private final PointObject[] points;
+
+	/**
+	 * location of each point in radian with cosine of latitude
+	 */
+	private final LatLngArray coords;
+
+	/**
+	 * radius of queries in meter
+	 */
+	private final double radius;
+
+	/**
+	 * radius in degree of latitude; it is also size of cells in degree
+	 */
+	private final double radiusDeg;
+
+	private final double minLat;
+
+	private final double minLng;
+
+	/**
+	 * (row << 32 | column) of cell of sortedIds[p], sorted
+	 */
+	private final long[] cellKeys;
+
+	/**
+	 * points sorted by cell
+	 */
+	private final int[] sortedIds;
+
+	/**
+	 *
+	 * @param points	location of points; points[i] is location of point i
+	 * @param radius	radius of queries in meter
+	 */
+	public GridIndex(PointObject[] points, double radius) {
+		this.points = points;
+		this.coords = new LatLngArray(points);
+		this.radius = radius;
+		this.radiusDeg = Math.toDegrees(radius / (Distance.AVERAGE_RADIUS_OF_EARTH * 1000.0));
+
+		double mLat = Double.POSITIVE_INFINITY, mLng = Double.POSITIVE_INFINITY;
+		for (PointObject p : points) {
+			mLat = Math.min(mLat, p.getLat());
+			mLng = Math.min(mLng, p.getLng());
+		}
+		this.minLat = points.length == 0 ? 0.0 : mLat;
+		this.minLng = points.length == 0 ? 0.0 : mLng;
+
+		int n = points.length;
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++)
+			keys[i] = key(row(points[i].getLat()), col(points[i].getLng()));
+		// points are placed after the sorted keys; points of one cell keep increasing order
+		cellKeys = keys.clone();
+		Arrays.sort(cellKeys);
+		sortedIds = new int[n];
+		int[] filled = new int[n];
+		for (int i = 0; i < n; i++) {
+			int p = lowerBound(keys[i]);
+			sortedIds[p + filled[p]++] = i;
+		}
+	}
+
+	private int row(double lat) {
+		return (int) Math.floor((lat - minLat) / radiusDeg);
+	}
+
+	private int col(double lng) {
+		return (int) Math.floor((lng - minLng) / radiusDeg);
+	}
+
+	private static long key(int row, int col) {
+		return ((long) row << 32) | (col & 0xffffffffL);
+	}
+
+	/**
+	 *
+	 * @param i	index of point
+	 * @return	indices of other points whose haversine distance to point i is less than radius, in increasing order
+	 */
+	public int[] withinRadius(int i) {
+		PointObject c = points[i];
+		double lat = c.getLat();
+		double lng = c.getLng();
+
+		// bounding box of the circle. Longitude half width is asin(sin(d) / cos(lat)); the box takes all
+		// longitudes if it contains a pole
+		double dLng = 180.0;
+		double d = radius / (Distance.AVERAGE_RADIUS_OF_EARTH * 1000.0);
+		if (lat + radiusDeg < 90.0 && lat - radiusDeg > -90.0) {
+			double s = Math.sin(d) / Math.cos(Math.toRadians(lat));
+			if (s < 1.0)
+				dLng = Math.toDegrees(Math.asin(s));
+		}
+
+		int[] result = new int[8];
+		int size = 0;
+		// longitude intervals of the box; it is split if it crosses the antimeridian
+		double[] lngRanges = {lng - dLng, lng + dLng, 1.0, 0.0, 1.0, 0.0};
+		if (dLng >= 180.0) {
+			lngRanges[0] = -180.0; lngRanges[1] = 180.0;
+		} else if (lng - dLng < -180.0) {
+			lngRanges[2] = lng - dLng + 360.0; lngRanges[3] = 180.0;
+		} else if (lng + dLng > 180.0) {
+			lngRanges[2] = -180.0; lngRanges[3] = lng + dLng - 360.0;
+		}
+
+		int r0 = row(lat - radiusDeg), r1 = row(lat + radiusDeg);
+		for (int r = 0; r < lngRanges.length; r += 2) {
+			double lo = lngRanges[r], hi = lngRanges[r + 1];
+			if (lo > hi)
+				continue;
+			int c0 = Math.max(0, col(lo)), c1 = col(hi);
+			if (c1 < 0)
+				continue;
+			for (int row = r0; row <= r1; row++) {
+				int b = lowerBound(key(row, c0));
+				int e = lowerBound(key(row, c1) + 1);
+				if (size + e - b > result.length)
+					result = Arrays.copyOf(result, Math.max(2 * result.length, size + e - b));
+				size += coords.withinRadius(i, sortedIds, b, e, radius, result, size);
+			}
+		}
+
+		// near a pole the two longitude intervals may share a column, so points can be found twice
+		Arrays.sort(result, 0, size);
+		int unique = 0;
+		for (int p = 0; p < size; p++)
+			if (unique == 0 || result[p] != result[unique - 1])
+				result[unique++] = result[p];
+		return Arrays.copyOf(result, unique);
+	}
+
+	/**
+	 *
+	 * @param key	cell key
+	 * @return		first position whose cell key is not less than key
+	 */
+	private int lowerBound(long key) {
+		int lo = 0, hi = cellKeys.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (cellKeys[mid] < key)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+}
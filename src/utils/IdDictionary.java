@@ -0,0 +1,94 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * map external string ids (user id, venue id) to dense integer index 0..size-1 and back.
+ * String ids are only used when reading input and writing output, the model works on index
+ * @author tndoan
+ *
+ */
+public class IdDictionary {
+
+	/**
+	 * key is external id, value is dense index
+	 */
+	private HashMap<String, Integer> indexMap;
+
+	/**
+	 * external id of each index
+	 */
+	private ArrayList<String> ids;
+
+	public IdDictionary() {
+		this.indexMap = new HashMap<>();
+		this.ids = new ArrayList<>();
+	}
+
+	/**
+	 * add id to dictionary if it is not there
+	 * @param id	external id
+	 * @return		dense index of this id
+	 */
+	public int add(String id) {
+		Integer index = indexMap.get(id);
+		if (index == null) {
+			index = ids.size();
+			indexMap.put(id, index);
+			ids.add(id);
+		}
+		return index;
+	}
+
+	/**
+	 *
+	 * @param id	external id
+	 * @return		dense index of id; -1 if id is not in dictionary
+	 */
+	public int getIndex(String id) {
+		Integer index = indexMap.get(id);
+		if (index == null)
+			return -1;
+		return index;
+	}
+
+	/**
+	 *
+	 * @param index	dense index
+	 * @return		external id of this index
+	 */
+	public String getId(int index) {
+		return ids.get(index);
+	}
+
+	/**
+	 *
+	 * @return	number of ids in dictionary
+	 */
+	public int size() {
+		return ids.size();
+	}
+
+	/**
+	 * translate collection of external ids to sorted array of index. Unknown ids are dropped
+	 * @param c	collection of external ids
+	 * @return	sorted array of index; null if c is null
+	 */
+	public int[] toIndices(Collection<String> c) {
+		if (c == null)
+			return null;
+		int[] result = new int[c.size()];
+		int n = 0;
+		for (String id : c) {
+			int index = getIndex(id);
+			if (index >= 0)
+				result[n++] = index;
+		}
+		result = Arrays.copyOf(result, n);
+		Arrays.sort(result);
+		return result;
+	}
+}
@@ -0,0 +1,150 @@
+package utils;
+
+import object.PointObject;
+
+/**
+ * locations of points in primitive arrays: latitude and longitude in radian and precomputed cosine of latitude, so
+ * distance of two points needs no conversion and no cosine.
+ * Radius tests go from cheap to exact: bounding box of the circle, then the equirectangular approximation, and the
+ * exact haversine only for pairs whose approximate distance is within a relative margin of the radius. Approximation
+ * is used only where its error is known to be below the margin (radius up to MAX_APPROX_RADIUS and latitude up to
+ * MAX_APPROX_LAT); elsewhere pairs in the box are checked with the haversine. So the results are the ones of the
+ * haversine
+ * @author tndoan
+ *
+ */
+public class LatLngArray {
+
+	/**
+	 * largest radius (meter) for which the approximation decides
+	 */
+	public static final double MAX_APPROX_RADIUS = 50000.0;
+
+	/**
+	 * largest absolute latitude (degree) of query point for which the approximation decides
+	 */
+	public static final double MAX_APPROX_LAT = 80.0;
+
+	/**
+	 * relative margin around the radius where the haversine decides; it is larger than the error of the
+	 * approximation for pairs in the bounding box of a circle of radius MAX_APPROX_RADIUS
+	 */
+	private static final double MARGIN = 1e-3;
+
+	private static final double EARTH_RADIUS_METER = Distance.AVERAGE_RADIUS_OF_EARTH * 1000.0;
+
+	private final double[] lat;
+
+	private final double[] lng;
+
+	private final double[] cosLat;
+
+	/**
+	 *
+	 * @param points	location of points; points[i] is location of point i
+	 */
+	public LatLngArray(PointObject[] points) {
+		int n = points.length;
+		lat = new double[n];
+		lng = new double[n];
+		cosLat = new double[n];
+		for (int i = 0; i < n; i++) {
+			lat[i] = Math.toRadians(points[i].getLat());
+			lng[i] = Math.toRadians(points[i].getLng());
+			cosLat[i] = Math.cos(lat[i]);
+		}
+	}
+
+	public int size() {
+		return lat.length;
+	}
+
+	/**
+	 *
+	 * @param i	index of point
+	 * @param j	index of point
+	 * @return	haversine distance in meter between point i and point j
+	 */
+	public double distance(int i, int j) {
+		return Distance.haversineToMeter(Distance.haversine(lat[i], lng[i], cosLat[i], lat[j], lng[j], cosLat[j]));
+	}
+
+	/**
+	 *
+	 * @param i	index of point
+	 * @param j	index of point
+	 * @return	equirectangular approximation of distance in meter between point i and point j; only accurate for
+	 * 			short distances
+	 */
+	public double approxDistance(int i, int j) {
+		return Math.sqrt(Distance.equirectangularSq(lat[i], lng[i], cosLat[i], lat[j], lng[j], cosLat[j]))
+				* EARTH_RADIUS_METER;
+	}
+
+	/**
+	 *
+	 * @param i			index of point
+	 * @param j			index of point
+	 * @param radius	radius in meter
+	 * @return			true if haversine distance between point i and point j is less than radius
+	 */
+	public boolean isWithin(int i, int j, double radius) {
+		int[] one = {j};
+		return withinRadius(i, one, 0, 1, radius, one, 0) == 1;
+	}
+
+	/**
+	 * batch radius test of point i against candidates[from, to). Point i itself is skipped.
+	 * out may be candidates itself with outOff <= from
+	 * @param i				index of query point
+	 * @param candidates	indices of candidate points
+	 * @param from			first position of candidates
+	 * @param to			end position of candidates (exclusive)
+	 * @param radius		radius in meter
+	 * @param out			candidates whose haversine distance to point i is less than radius are written here, in
+	 * 						the order of candidates; it must have room for to - from indices after outOff
+	 * @param outOff		first position of out
+	 * @return				number of indices written to out
+	 */
+	public int withinRadius(int i, int[] candidates, int from, int to, double radius, int[] out, int outOff) {
+		double la = lat[i], ln = lng[i], c = cosLat[i];
+		double angle = radius / EARTH_RADIUS_METER;
+
+		// bounding box of the circle; longitude half width is asin(sin(angle) / cos(lat)), all longitudes if the
+		// circle contains a pole
+		double dLat = angle;
+		double dLng = Math.PI;
+		if (Math.abs(la) + angle < Math.PI / 2) {
+			double s = Math.sin(angle) / c;
+			if (s < 1.0)
+				dLng = Math.asin(s);
+		}
+
+		// accept and reject thresholds of the approximation; the reject threshold is infinite if it does not decide
+		boolean approx = radius <= MAX_APPROX_RADIUS && Math.abs(la) <= Math.toRadians(MAX_APPROX_LAT);
+		double acceptSq = approx ? square(angle * (1 - MARGIN)) : -1.0;
+		double rejectSq = approx ? square(angle * (1 + MARGIN)) : Double.POSITIVE_INFINITY;
+		// haversine of the radius; distance < radius iff haversine < hRadius since angle is at most pi
+		double hRadius = angle >= Math.PI ? Double.POSITIVE_INFINITY : square(Math.sin(angle / 2));
+
+		int size = 0;
+		for (int p = from; p < to; p++) {
+			int j = candidates[p];
+			if (j == i)
+				continue;
+			double la2 = lat[j], ln2 = lng[j];
+			if (Math.abs(la2 - la) > dLat || Math.abs(Distance.wrap(ln2 - ln)) > dLng)
+				continue;
+			double eq = Distance.equirectangularSq(la, ln, c, la2, ln2, cosLat[j]);
+			if (eq > rejectSq)
+				continue;
+			if (eq < acceptSq || Distance.haversine(la, ln, c, la2, ln2, cosLat[j]) < hRadius)
+				out[outOff + size++] = j;
+		}
+		return size;
+	}
+
+	private static double square(double x) {
+		return x * x;
+	}
+}
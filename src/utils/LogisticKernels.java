@@ -0,0 +1,54 @@
+package utils;
+
+/**
+ * logistic functions used by gradients and log likelihood. Implementation is chosen once at start up
+ * by the system property "logistic":
+ * 	-Dlogistic=exact	(default) java.lang.Math with numerically stable forms
+ * 	-Dlogistic=fast		tables with interpolation; see FastLogisticKernels for the error bounds
+ * Unknown values fall back to exact
+ * @author tndoan
+ *
+ */
+public interface LogisticKernels {
+
+	/**
+	 *
+	 * @return	name of implementation
+	 */
+	String getName();
+
+	/**
+	 *
+	 * @param a	steepness of logistic function
+	 * @param x	variable
+	 * @return	1 / (1 + e^(-a * x))
+	 */
+	double logistic(double a, double x);
+
+	/**
+	 * log of logistic function, i.e. -softplus(-a * x). It is finite for all finite a * x
+	 * @param a	steepness of logistic function
+	 * @param x	variable
+	 * @return	log(1 / (1 + e^(-a * x)))
+	 */
+	double logLogistic(double a, double x);
+
+	/**
+	 * choose implementation from system property "logistic"
+	 * @return	implementation of kernels
+	 */
+	static LogisticKernels create() {
+		return create(System.getProperty("logistic", "exact"));
+	}
+
+	/**
+	 *
+	 * @param name	"exact" or "fast"
+	 * @return		implementation of kernels. Exact one if name is unknown
+	 */
+	static LogisticKernels create(String name) {
+		if ("fast".equals(name))
+			return new FastLogisticKernels();
+		return new ExactLogisticKernels();
+	}
+}
@@ -1,12 +1,12 @@
 package utils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
 
 import object.AreaObject;
+import object.NeighborGraph;
 import object.PointObject;
 import object.RectangleObject;
 import object.VenueObject;
@@ -14,23 +14,24 @@ import object.VenueObject;
 public class MakeAreaMap {
 	
 	/**
-	 * 
-	 * @param vMap
+	 * each venue makes one area together with its neighbors. Index of area is the same as index of venue
+	 * @param graph				neighbor graph of venues
+	 * @param venueDict			dictionary of venue ids
 	 * @param isAverageLocation
-	 * @return
+	 * @return					list of areas; i-th area is made by venue i
 	 */
-	public static HashMap<String, AreaObject> createEachPointCluster(HashMap<String, VenueObject> vMap, boolean isAverageLocation) {
-		HashMap<String, AreaObject> result = new HashMap<>();
+	public static ArrayList<AreaObject> createEachPointCluster(NeighborGraph graph, IdDictionary venueDict, 
+			boolean isAverageLocation) {
+		ArrayList<AreaObject> result = new ArrayList<>();
 		
-		for (String venueId : vMap.keySet()) {
-			VenueObject vo = vMap.get(venueId);
-			Set<String> venueIds = vo.getNeighbors();
+		for (int venueId = 0; venueId < graph.getNumVenues(); venueId++) {
+			int[] neighbors = graph.getNeighbors(venueId);
 
-			Set<String> venueInArea = new HashSet<>(vo.getNeighbors());
-			venueInArea.add(venueId);
+			int[] venueInArea = Arrays.copyOf(neighbors, neighbors.length + 1);
+			venueInArea[neighbors.length] = venueId;
 			
-			AreaObject a = new AreaObject(venueId, venueInArea);
-			result.put(venueId, a);
+			AreaObject a = new AreaObject(venueDict.getId(venueId), venueId, venueInArea);
+			result.add(a);
 		}
 		
 		return result;
@@ -38,13 +39,13 @@ public class MakeAreaMap {
 	
 	/**
 	 * 
-	 * @param vMap
-	 * @return
+	 * @param vMap	array of venue objects indexed by venue index
+	 * @return		list of areas; index of area is its position in the list
 	 */
-	public static HashMap<String, AreaObject> createSquareCluster(HashMap<String, VenueObject> vMap) {
-		HashMap<String, AreaObject> result = new HashMap<>();
+	public static ArrayList<AreaObject> createSquareCluster(VenueObject[] vMap) {
+		ArrayList<AreaObject> result = new ArrayList<>();
 		
-		RectangleObject coverRectangle = surroundingGrid(vMap.values());
+		RectangleObject coverRectangle = surroundingGrid(Arrays.asList(vMap));
 		double scale = 0.1; // the size of each square is 0.1 x 0.1 (latitude and longitude)
 		
 		PointObject ne = coverRectangle.getNortheast();
@@ -56,32 +57,42 @@ public class MakeAreaMap {
 		int numLat = (int) (Math.abs(ne.getLat() - sw.getLat()) / scale);
 		int numLng = (int) (Math.abs(ne.getLng() - sw.getLng()) / scale);
 		
-		// I know it is not a good way to handle this case but maybe it works
-		// key is area id; value is set of venue id which is belong to this area
-		HashMap<String, Set<String>> venuesInArea = new HashMap<>();
+		// key is cell id; value is index of area which is made by this cell
+		HashMap<Integer, Integer> areaOfCell = new HashMap<>();
+		int[] size = new int[vMap.length];
 		
-		for (String vId : vMap.keySet()) {
-			VenueObject vo = vMap.get(vId);
+		for (VenueObject vo : vMap) {
 			PointObject loc = vo.getLocation();
 			
 			// cell id of this venue
 			int i = (int) Math.ceil((loc.getLat() - base_min_lat) / scale);
 			int j = (int) Math.ceil((loc.getLng() - base_min_lng) / scale);
+			int cell = i * numLat + j;
 			
 			// area id of venue. Each venue is belong to only 1 area.
-			String areaIds = String.valueOf(i * numLat + j);
-			
-			vo.setAreaId(areaIds);
+			Integer areaId = areaOfCell.get(cell);
+			if (areaId == null) {
+				areaId = areaOfCell.size();
+				areaOfCell.put(cell, areaId);
+			}
+			size[areaId]++;
+			vo.setAreaId(areaId);
 		}
 		
 		// create area
-		for (int i = 0; i < numLat - 1; i++) {
-			for (int j = 0; j < numLng - 1; j++) {
-				String areaId = String.valueOf(i * j);
-				AreaObject area = new AreaObject(areaId, venuesInArea.get(areaId));
-				result.put(areaId, area);
-			}
+		int[][] venuesInArea = new int[areaOfCell.size()][];
+		for (int a = 0; a < venuesInArea.length; a++)
+			venuesInArea[a] = new int[size[a]];
+		Arrays.fill(size, 0);
+		for (VenueObject vo : vMap) {
+			int a = vo.getAreaId();
+			venuesInArea[a][size[a]++] = vo.getIndex();
+		}
+		for (Integer cell : areaOfCell.keySet()) {
+			int a = areaOfCell.get(cell);
+			result.add(new AreaObject(String.valueOf(cell), a, venuesInArea[a]));
 		}
+		result.sort((a1, a2) -> Integer.compare(a1.getIndex(), a2.getIndex()));
 				
 		return result;
 	}
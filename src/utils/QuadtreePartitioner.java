@@ -0,0 +1,285 @@
+package utils;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import object.PointObject;
+
+/**
+ * adaptive partition of venues into quadtree cells. The root is the rectangle which covers all venues; a cell is
+ * split into 4 children until it has at most maxVenues venues (or it is at MAX_DEPTH, e.g. many venues at the same
+ * location). The tree is then 2:1 balanced: leaves which touch each other (by side or corner) differ by at most one
+ * level, so a leaf touches at most 12 other leaves and the venues of a leaf and its adjacent leaves are at most
+ * 13 * maxVenues (except for leaves at MAX_DEPTH).
+ * Leaves cover the root completely; empty leaves are kept so that adjacency is found by looking up cells.
+ * A leaf is a key (level << 48 | x << 24 | y) where (x, y) is the cell at this level, x along longitude and y along
+ * latitude
+ * @author tndoan
+ *
+ */
+public class QuadtreePartitioner {
+
+	public static final int MAX_DEPTH = 24;
+
+	/**
+	 * cell of each venue at MAX_DEPTH
+	 */
+	private final int[] cellX;
+
+	private final int[] cellY;
+
+	/**
+	 * venues of each leaf
+	 */
+	private final HashMap<Long, int[]> leaves = new HashMap<>();
+
+	/**
+	 *
+	 * @param points	location of venues; points[i] is location of venue i
+	 * @param maxVenues	maximum number of venues in a leaf
+	 */
+	public QuadtreePartitioner(PointObject[] points, int maxVenues) {
+		int n = points.length;
+		double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+		double minLng = Double.POSITIVE_INFINITY, maxLng = Double.NEGATIVE_INFINITY;
+		for (PointObject p : points) {
+			minLat = Math.min(minLat, p.getLat()); maxLat = Math.max(maxLat, p.getLat());
+			minLng = Math.min(minLng, p.getLng()); maxLng = Math.max(maxLng, p.getLng());
+		}
+
+		cellX = new int[n];
+		cellY = new int[n];
+		int[] all = new int[n];
+		for (int v = 0; v < n; v++) {
+			cellX[v] = toCell(points[v].getLng(), minLng, maxLng);
+			cellY[v] = toCell(points[v].getLat(), minLat, maxLat);
+			all[v] = v;
+		}
+
+		split(0, 0, 0, all, maxVenues);
+		balance();
+	}
+
+	/**
+	 *
+	 * @param value	coordinate
+	 * @param min	minimum of coordinate
+	 * @param max	maximum of coordinate
+	 * @return		cell of coordinate at MAX_DEPTH
+	 */
+	private static int toCell(double value, double min, double max) {
+		if (max <= min)
+			return 0;
+		long c = (long) Math.floor((value - min) / (max - min) * (1 << MAX_DEPTH));
+		return (int) Math.min((1 << MAX_DEPTH) - 1, Math.max(0, c));
+	}
+
+	private static long key(int level, int x, int y) {
+		return ((long) level << 48) | ((long) x << 24) | y;
+	}
+
+	public static int levelOf(long leaf) {
+		return (int) (leaf >>> 48);
+	}
+
+	public static int xOf(long leaf) {
+		return (int) ((leaf >>> 24) & 0xffffff);
+	}
+
+	public static int yOf(long leaf) {
+		return (int) (leaf & 0xffffff);
+	}
+
+	/**
+	 * split cell recursively until it has at most maxVenues venues
+	 */
+	private void split(int level, int x, int y, int[] venues, int maxVenues) {
+		if (venues.length <= maxVenues || level == MAX_DEPTH) {
+			leaves.put(key(level, x, y), venues);
+			return;
+		}
+		int[][] children = children(level, venues);
+		for (int c = 0; c < 4; c++)
+			split(level + 1, 2 * x + (c & 1), 2 * y + (c >> 1), children[c], maxVenues);
+	}
+
+	/**
+	 *
+	 * @param level		level of cell
+	 * @param venues	venues of cell
+	 * @return			venues of the 4 children; child c is (2x + (c & 1), 2y + (c >> 1))
+	 */
+	private int[][] children(int level, int[] venues) {
+		int shift = MAX_DEPTH - level - 1;
+		int[] size = new int[4];
+		int[] childOf = new int[venues.length];
+		for (int i = 0; i < venues.length; i++) {
+			int v = venues[i];
+			childOf[i] = ((cellX[v] >> shift) & 1) | (((cellY[v] >> shift) & 1) << 1);
+			size[childOf[i]]++;
+		}
+		int[][] result = new int[4][];
+		for (int c = 0; c < 4; c++)
+			result[c] = new int[size[c]];
+		int[] next = new int[4];
+		for (int i = 0; i < venues.length; i++)
+			result[childOf[i]][next[childOf[i]]++] = venues[i];
+		return result;
+	}
+
+	/**
+	 *
+	 * @param level	level of cell
+	 * @param x		column of cell
+	 * @param y		row of cell
+	 * @return		the leaf which contains the cell; -1 if the cell is split into smaller leaves
+	 */
+	private long leafContaining(int level, int x, int y) {
+		for (int m = level; m >= 0; m--) {
+			long k = key(m, x >> (level - m), y >> (level - m));
+			if (leaves.containsKey(k))
+				return k;
+		}
+		return -1;
+	}
+
+	/**
+	 * split leaves until leaves which touch each other differ by at most one level
+	 */
+	private void balance() {
+		ArrayDeque<Long> queue = new ArrayDeque<>(leaves.keySet());
+		while (!queue.isEmpty()) {
+			long leaf = queue.poll();
+			if (!leaves.containsKey(leaf))
+				continue;
+			int l = levelOf(leaf), x = xOf(leaf), y = yOf(leaf);
+			int size = 1 << l;
+			for (int dx = -1; dx <= 1; dx++)
+				for (int dy = -1; dy <= 1; dy++) {
+					int nx = x + dx, ny = y + dy;
+					if ((dx == 0 && dy == 0) || nx < 0 || ny < 0 || nx >= size || ny >= size)
+						continue;
+					long coarse = leafContaining(l, nx, ny);
+					if (coarse < 0 || levelOf(coarse) >= l - 1)
+						continue;
+					// neighbor is too coarse, split it; its children and this leaf are checked again
+					int cl = levelOf(coarse), cx = xOf(coarse), cy = yOf(coarse);
+					int[][] children = children(cl, leaves.remove(coarse));
+					for (int c = 0; c < 4; c++) {
+						long child = key(cl + 1, 2 * cx + (c & 1), 2 * cy + (c >> 1));
+						leaves.put(child, children[c]);
+						queue.add(child);
+					}
+					queue.add(leaf);
+				}
+		}
+	}
+
+	/**
+	 *
+	 * @return	all leaves, empty ones included, in Z-order so that leaves close to each other are close in the array
+	 */
+	public long[] getLeaves() {
+		long[] result = new long[leaves.size()];
+		long[] order = new long[leaves.size()];
+		int i = 0;
+		for (long leaf : leaves.keySet())
+			result[i++] = leaf;
+		for (i = 0; i < result.length; i++) {
+			int shift = MAX_DEPTH - levelOf(result[i]);
+			order[i] = interleave(xOf(result[i]) << shift, yOf(result[i]) << shift);
+		}
+		// sort leaves by Z-order; Z-orders of leaves are distinct since leaves do not overlap
+		Integer[] idx = new Integer[result.length];
+		for (i = 0; i < idx.length; i++)
+			idx[i] = i;
+		Arrays.sort(idx, (a, b) -> Long.compare(order[a], order[b]));
+		long[] sorted = new long[result.length];
+		for (i = 0; i < idx.length; i++)
+			sorted[i] = result[idx[i]];
+		return sorted;
+	}
+
+	/**
+	 *
+	 * @param x	column at MAX_DEPTH
+	 * @param y	row at MAX_DEPTH
+	 * @return	Z-order (Morton code) of cell
+	 */
+	private static long interleave(int x, int y) {
+		long z = 0;
+		for (int b = 0; b < MAX_DEPTH; b++)
+			z |= ((long) ((x >> b) & 1) << (2 * b)) | ((long) ((y >> b) & 1) << (2 * b + 1));
+		return z;
+	}
+
+	/**
+	 *
+	 * @param leaf	leaf
+	 * @return		venues of leaf
+	 */
+	public int[] venuesOf(long leaf) {
+		return leaves.get(leaf);
+	}
+
+	/**
+	 *
+	 * @param leaf	leaf
+	 * @return		leaves which touch leaf by side or corner
+	 */
+	public long[] adjacentLeaves(long leaf) {
+		int l = levelOf(leaf), x = xOf(leaf), y = yOf(leaf);
+		int size = 1 << l;
+		long[] result = new long[12];
+		int n = 0;
+		for (int dx = -1; dx <= 1; dx++)
+			for (int dy = -1; dy <= 1; dy++) {
+				int nx = x + dx, ny = y + dy;
+				if ((dx == 0 && dy == 0) || nx < 0 || ny < 0 || nx >= size || ny >= size)
+					continue;
+				long same = leafContaining(l, nx, ny);
+				if (same >= 0) {
+					n = add(result, n, same);
+					continue;
+				}
+				// neighbor cell is split; its children on the side of this leaf are leaves since the tree is balanced
+				for (int c = 0; c < 4; c++) {
+					int cx = 2 * nx + (c & 1), cy = 2 * ny + (c >> 1);
+					if ((dx == 1 && (c & 1) == 1) || (dx == -1 && (c & 1) == 0)
+							|| (dy == 1 && (c >> 1) == 1) || (dy == -1 && (c >> 1) == 0))
+						continue;
+					long child = key(l + 1, cx, cy);
+					if (leaves.containsKey(child))
+						n = add(result, n, child);
+				}
+			}
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * put value at the end of the first n elements of a if it is not there yet. a has room for all 12 leaves
+	 * which can touch a leaf of a balanced tree
+	 * @return	new number of elements
+	 */
+	private static int add(long[] a, int n, long value) {
+		for (int i = 0; i < n; i++)
+			if (a[i] == value)
+				return n;
+		a[n] = value;
+		return n + 1;
+	}
+
+	/**
+	 *
+	 * @param leaf	leaf
+	 * @return		quadkey of leaf: one digit (0 to 3) per level, like prefixes of geohash
+	 */
+	public static String quadKey(long leaf) {
+		int l = levelOf(leaf), x = xOf(leaf), y = yOf(leaf);
+		StringBuilder sb = new StringBuilder(l);
+		for (int b = l - 1; b >= 0; b--)
+			sb.append((char) ('0' + (((x >> b) & 1) | (((y >> b) & 1) << 1))));
+		return sb.toString();
+	}
+}
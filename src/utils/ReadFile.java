@@ -5,6 +5,9 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+
+import object.CheckinMatrix;
 
 /**
  * All functions are used to read input files
@@ -16,31 +19,69 @@ public class ReadFile {
 	/**
 	 * each line has the format
 	 * <userId> <venueId>:<numCks> <venueId>:<numCks> <venueId>:<numCks> <venueId>:<numCks> ....
-	 * @param filename the name of file
-	 * @return	hashmap whose key is user id and value is map (key venue id, value is # of cks between user and venue)
+	 * Every user in the file is added to userDict. Check-ins in venues which are not in venueDict are ignored.
+	 * If a user has several lines, only the last one is kept; if a venue appears twice in a line, the last number wins
+	 * @param filename	the name of file
+	 * @param userDict	dictionary of user ids
+	 * @param venueDict	dictionary of venue ids
+	 * @return			check-in matrix between users and venues
 	 */
-	public static HashMap<String, HashMap<String, Integer>> readNumCksFile(String filename){
-		HashMap<String, HashMap<String, Integer>> result = null;
+	public static CheckinMatrix readNumCksFile(String filename, IdDictionary userDict, IdDictionary venueDict){
+		CheckinMatrix result = null;
 		
 		try (BufferedReader br = new BufferedReader(new FileReader(filename)))
 		{
-			result = new HashMap<>();
+			int size = 0;
+			int[] users = new int[1024];
+			int[] venues = new int[1024];
+			int[] cks = new int[1024];
+			int[] lines = new int[1024];
+			// last line of each user
+			int[] lastLine = new int[1024];
+			int lineNo = 0;
 			String sCurrentLine;
 
 			while ((sCurrentLine = br.readLine()) != null) {
 				String[] comp = sCurrentLine.split(" ");
-				String userId = comp[0];
+				int userId = userDict.add(comp[0]);
+				if (userId >= lastLine.length)
+					lastLine = Arrays.copyOf(lastLine, Math.max(2 * lastLine.length, userId + 1));
+				lastLine[userId] = ++lineNo;
 				
-				HashMap<String, Integer> map = new HashMap<>();
 				for (int i = 1; i < comp.length; i++){
 					String[] c = comp[i].split(":");
-					String venueId = c[0];
+					int venueId = venueDict.getIndex(c[0]);
+					if (venueId < 0)
+						continue;
 					int numCks = Integer.parseInt(c[1]);
-					map.put(venueId, numCks);
+					
+					if (size == users.length) {
+						users = Arrays.copyOf(users, size * 2);
+						venues = Arrays.copyOf(venues, size * 2);
+						cks = Arrays.copyOf(cks, size * 2);
+						lines = Arrays.copyOf(lines, size * 2);
+					}
+					users[size] = userId;
+					venues[size] = venueId;
+					cks[size] = numCks;
+					lines[size] = lineNo;
+					size++;
 				}
-				
-				result.put(userId, map);
 			}
+			
+			// drop check-ins of earlier lines of users who have several lines
+			int kept = 0;
+			for (int i = 0; i < size; i++) {
+				if (lines[i] != lastLine[users[i]])
+					continue;
+				users[kept] = users[i];
+				venues[kept] = venues[i];
+				cks[kept] = cks[i];
+				kept++;
+			}
+			size = kept;
+			
+			result = new CheckinMatrix(userDict.size(), venueDict.size(), users, venues, cks, size);
 
 		} catch (IOException e) {
 			e.printStackTrace();
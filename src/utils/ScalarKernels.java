@@ -0,0 +1,44 @@
+package utils;
+
+/**
+ * plain loops. It is the reference implementation of VectorKernels
+ * @author tndoan
+ *
+ */
+public class ScalarKernels implements VectorKernels {
+
+	@Override
+	public String getName() {
+		return "scalar";
+	}
+
+	@Override
+	public double dot(double[] v1, int off1, double[] v2, int off2, int length) {
+		double result = 0.0;
+		for (int i = 0; i < length; i++)
+			result += v1[off1 + i] * v2[off2 + i];
+		return result;
+	}
+
+	@Override
+	public void axpy(double t, double[] x, int offX, double[] y, int offY, int length) {
+		for (int i = 0; i < length; i++)
+			y[offY + i] += t * x[offX + i];
+	}
+
+	@Override
+	public double sqrDistance(double[] v1, int off1, double[] v2, int off2, int length) {
+		double result = 0.0;
+		for (int i = 0; i < length; i++) {
+			double d = v1[off1 + i] - v2[off2 + i];
+			result += d * d;
+		}
+		return result;
+	}
+
+	@Override
+	public void dotRows(double[] x, int xOff, double[] data, int k, int[] rows, double[] out) {
+		for (int r = 0; r < rows.length; r++)
+			out[r] = dot(x, xOff, data, rows[r] * k, k);
+	}
+}
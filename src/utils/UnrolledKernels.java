@@ -0,0 +1,84 @@
+package utils;
+
+/**
+ * loops are unrolled by 4. Reductions use 4 independent accumulators so additions do not wait for each other
+ * and the JIT can map them to SIMD lanes. Summation order differs from ScalarKernels, so results can differ in
+ * the last bits
+ * @author tndoan
+ *
+ */
+public class UnrolledKernels implements VectorKernels {
+
+	@Override
+	public String getName() {
+		return "unrolled";
+	}
+
+	@Override
+	public double dot(double[] v1, int off1, double[] v2, int off2, int length) {
+		double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+		int i = 0;
+		for (; i + 3 < length; i += 4) {
+			s0 += v1[off1 + i] * v2[off2 + i];
+			s1 += v1[off1 + i + 1] * v2[off2 + i + 1];
+			s2 += v1[off1 + i + 2] * v2[off2 + i + 2];
+			s3 += v1[off1 + i + 3] * v2[off2 + i + 3];
+		}
+		for (; i < length; i++)
+			s0 += v1[off1 + i] * v2[off2 + i];
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	@Override
+	public void axpy(double t, double[] x, int offX, double[] y, int offY, int length) {
+		int i = 0;
+		for (; i + 3 < length; i += 4) {
+			y[offY + i] += t * x[offX + i];
+			y[offY + i + 1] += t * x[offX + i + 1];
+			y[offY + i + 2] += t * x[offX + i + 2];
+			y[offY + i + 3] += t * x[offX + i + 3];
+		}
+		for (; i < length; i++)
+			y[offY + i] += t * x[offX + i];
+	}
+
+	@Override
+	public double sqrDistance(double[] v1, int off1, double[] v2, int off2, int length) {
+		double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+		int i = 0;
+		for (; i + 3 < length; i += 4) {
+			double d0 = v1[off1 + i] - v2[off2 + i];
+			double d1 = v1[off1 + i + 1] - v2[off2 + i + 1];
+			double d2 = v1[off1 + i + 2] - v2[off2 + i + 2];
+			double d3 = v1[off1 + i + 3] - v2[off2 + i + 3];
+			s0 += d0 * d0;
+			s1 += d1 * d1;
+			s2 += d2 * d2;
+			s3 += d3 * d3;
+		}
+		for (; i < length; i++) {
+			double d = v1[off1 + i] - v2[off2 + i];
+			s0 += d * d;
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	@Override
+	public void dotRows(double[] x, int xOff, double[] data, int k, int[] rows, double[] out) {
+		// 2 rows at a time so each element of x is loaded once for both rows
+		int r = 0;
+		for (; r + 1 < rows.length; r += 2) {
+			int o0 = rows[r] * k, o1 = rows[r + 1] * k;
+			double s0 = 0.0, s1 = 0.0;
+			for (int i = 0; i < k; i++) {
+				double xi = x[xOff + i];
+				s0 += xi * data[o0 + i];
+				s1 += xi * data[o1 + i];
+			}
+			out[r] = s0;
+			out[r + 1] = s1;
+		}
+		for (; r < rows.length; r++)
+			out[r] = dot(x, xOff, data, rows[r] * k, k);
+	}
+}
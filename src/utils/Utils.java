@@ -8,71 +8,19 @@ import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.stream.IntStream;
 
+import object.AreaFactorCache;
 import object.AreaObject;
+import object.CheckinMatrix;
+import object.NeighborGraph;
 import object.PointObject;
 import object.RectangleObject;
 import object.VenueObject;
 
 public class Utils {
-	/**
-	 * 
-	 * @param cksMap
-	 * @return
-	 */
-	public static HashMap<String, Integer> countCks(HashMap<String, HashMap<String, Integer>> cksMap){
-		HashMap<String, Integer> result = new HashMap<>();
-		
-		for (String userId : cksMap.keySet()){
-			HashMap<String, Integer> map = cksMap.get(userId);
-			for (String venueId : map.keySet()){
-				int numCks = map.get(venueId);
-				Integer currentCks = result.get(venueId);
-				if (currentCks == null){
-					currentCks = 0;
-				} 
-				result.put(venueId, numCks + currentCks);
-			}
-		}
-		
-		return result;
-	}
-
-	/**
-	 * 
-	 * @param cksMap
-	 * @return hash map whose key is venue id, value is list of user id who have check-in in this venue
-	 */
-	public static HashMap<String, ArrayList<String>> collectUsers(HashMap<String, HashMap<String, Integer>> cksMap){
-		HashMap<String, ArrayList<String>> result = new HashMap<>();
-		
-		for (String userId : cksMap.keySet()){
-			HashMap<String, Integer> map = cksMap.get(userId);
-			
-			for (String venueId : map.keySet()){
-				Integer numCks = map.get(venueId);
-				if (numCks == null){
-					System.err.println("Bug here");
-					continue;
-				}
-				
-				ArrayList<String> listOfUId = result.get(venueId);
-				if (listOfUId == null){
-					listOfUId = new ArrayList<>();
-					result.put(venueId, listOfUId);
-				}
-				
-				listOfUId.add(userId);
-			}
-		}
-		
-		return result;
-	}
-	
 	/**
 	 * Round up number up to the places-th behind the point
 	 * For example, 11.56 => 11.6
@@ -107,92 +55,88 @@ public class Utils {
 
 	/**
 	 * 
-	 * @param vInfo
-	 * @param countMap
-	 * @param userOfVenueMap
-	 * @param areaMap
+	 * @param vInfo				location of venues; vInfo[i] is location of venue i
+	 * @param venueDict			dictionary of venue ids
+	 * @param areaList			list of areas which is filled by this function
 	 * @param isAverageLocation
-	 * @param threshold
-	 * @return
+	 * @param threshold			two venues are neighbors if their distance is less than threshold
+	 * @return					neighbor graph of venues
 	 */
-	public static HashMap<String, VenueObject> createNeighborsList(HashMap<String, String> vInfo, HashMap<String, Integer> countMap,
-			HashMap<String, ArrayList<String>> userOfVenueMap, HashMap<String, AreaObject> areaMap, boolean isAverageLocation, 
-			double threshold, int k) {		
-		// create neighbors map
-		HashMap<String, Set<String>> neighbors = new HashMap<>();
-		
-		Set<String> allVenueIds = vInfo.keySet();
-		ArrayList<String> venueIdsList = new ArrayList<>();
-		venueIdsList.addAll(allVenueIds);
+	public static NeighborGraph createNeighborsList(PointObject[] vInfo, IdDictionary venueDict, 
+			ArrayList<AreaObject> areaList, boolean isAverageLocation, double threshold) {
+		NeighborGraph graph = createNeighborsRadius(vInfo, threshold);
 		
-		for (int i = 0; i < venueIdsList.size(); i++) {
-			String v1 = venueIdsList.get(i);
-			PointObject p1 = new PointObject(vInfo.get(v1)); // location of point i
-			for (int j = i + 1; j < venueIdsList.size(); j++) {
-				String v2 = venueIdsList.get(j);
-				PointObject p2 = new PointObject(vInfo.get(v2)); // location of point j
-				
-				double dist = Distance.calculateDistance(p1, p2);
-				
-				if (dist < threshold) {
-					// if distance is less than threshold, these two points are neighbors.
-					Set<String> l1 = neighbors.get(v1);
-					if (l1 == null) {
-						l1 = new HashSet<>();
-						neighbors.put(v1, l1);
-					}
-					l1.add(v2);
-					
-					Set<String> l2 = neighbors.get(v2);
-					if(l2 == null) {
-						l2 = new HashSet<>();
-						neighbors.put(v2, l2);
-					}
-					l2.add(v1);
-				}
-			}
-		}
-		// finish building neighbor map
+		// make area map
+		areaList.addAll(MakeAreaMap.createEachPointCluster(graph, venueDict, isAverageLocation));
 		
-		// build venue map
-		HashMap<String, VenueObject> result = new HashMap<>();
-		for (String vId : allVenueIds) {
-			//parse the location of venues
-			String locInfo = vInfo.get(vId);
-			PointObject location = new PointObject(locInfo);
-			
-			Set<String> neighborIds = neighbors.get(vId);
-			
-			int numCks = countMap.get(vId);
-			
-			ArrayList<String> listOfUsers = userOfVenueMap.get(vId);
-			
-			VenueObject vo = new VenueObject(vId, numCks, location, neighborIds, listOfUsers, k);
-			result.put(vId, vo);
-		}
+		return graph;
+	}
+	
+	/**
+	 * 
+	 * @param vInfo				location of venues; vInfo[i] is location of venue i
+	 * @param threshold			two venues are neighbors if their distance is less than threshold
+	 * @return					neighbor graph of venues; each venue is its own group
+	 */
+	public static NeighborGraph createNeighborsRadius(PointObject[] vInfo, double threshold) {
+		int n = vInfo.length;
+		// Radius queries on a grid index instead of comparing all pairs of venues
+		GridIndex index = new GridIndex(vInfo, threshold);
+		int[][] neighbors = new int[n][];
+		IntStream.range(0, n).parallel().forEach(i -> neighbors[i] = index.withinRadius(i));
 		
-		// make area map
-		areaMap = MakeAreaMap.createEachPointCluster(result, isAverageLocation);
+		return NeighborGraph.fromLists(neighbors, null);
+	}
+	
+	/**
+	 * keep at most maxNeighbors neighbors of each venue among its candidates: the nearest ones, or the most popular
+	 * ones if popularity is given. Candidates come from another graph, e.g. the 3x3 block of the box neighborhood,
+	 * which acts as the spatial index. Each venue uses a bounded heap, so it costs O(candidates * log maxNeighbors).
+	 * The relation is not symmetric: n can be kept for v while v is not kept for n
+	 * @param vInfo				location of venues; vInfo[i] is location of venue i
+	 * @param candidates		graph whose neighbors of v are the candidates of v
+	 * @param maxNeighbors		maximum number of neighbors of each venue
+	 * @param popularity		popularity of each venue, e.g. number of check-ins; null to keep the nearest venues
+	 * @return					neighbor graph of venues; each venue is its own group. Neighbors of v are sorted by
+	 * 							distance (or decreasing popularity)
+	 */
+	public static NeighborGraph createNeighborsCapped(PointObject[] vInfo, NeighborGraph candidates, 
+			int maxNeighbors, int[] popularity) {
+		int n = vInfo.length;
+		int[][] neighbors = new int[n][];
+		LatLngArray coords = popularity == null ? new LatLngArray(vInfo) : null;
+		ThreadLocal<BoundedHeap> heaps = ThreadLocal.withInitial(() -> new BoundedHeap(maxNeighbors));
+		IntStream.range(0, n).parallel().forEach(v -> {
+			BoundedHeap heap = heaps.get();
+			heap.clear();
+			for (int p = candidates.begin(v); p < candidates.end(v); p++) {
+				int c = candidates.target(p);
+				if (c == v)
+					continue;
+				// smaller key is better
+				if (popularity == null)
+					heap.offer(coords.distance(v, c), c);
+				else
+					heap.offer(-popularity[c], c);
+			}
+			neighbors[v] = heap.drainSorted();
+		});
 		
-		return result;
+		return NeighborGraph.fromLists(neighbors, null);
 	}
 	
 	/**
 	 * 
-	 * @param vInfo
-	 * @param areaMap
-	 * @param countMap
-	 * @param userOfVenueMap
+	 * @param vInfo				location of venues; vInfo[i] is location of venue i
+	 * @param areaList			list of areas which is filled by this function. Index of area is its position in list
 	 * @param scale				size of the cell in degree
-	 * @param k
-	 * @return
+	 * @return					neighbor graph of venues whose groups are areas
 	 */
-	public static HashMap<String, VenueObject> createNeighborsBox(HashMap<String, PointObject> vInfo, HashMap<String, AreaObject> areaMap, 
-			HashMap<String, Integer> countMap, HashMap<String, ArrayList<String>> userOfVenueMap, double scale, int k) {
-		Collection<PointObject> locInfo = vInfo.values();
+	public static NeighborGraph createNeighborsBox(PointObject[] vInfo, ArrayList<AreaObject> areaList, double scale) {
+		int n = vInfo.length;
 		
 		// find venues inside area
-		RectangleObject coverRectangle = MakeAreaMap.surroundingGrid1(locInfo);
+		RectangleObject coverRectangle = MakeAreaMap.surroundingGrid1(Arrays.asList(vInfo));
 		System.out.println("cover rectangle:" + coverRectangle.toString());
 
 		PointObject ne = coverRectangle.getNortheast();
@@ -201,30 +145,46 @@ public class Utils {
 		double base_min_lat = sw.getLat();
 		double base_min_lng = sw.getLng();
 
-		int numLat = (int) Math.round(ne.getLat() / scale - sw.getLat() / scale);
-		int numLng = (int) Math.round(ne.getLng() / scale - sw.getLng() / scale);
+		int numLat = Math.max(1, (int) Math.round(ne.getLat() / scale - sw.getLat() / scale));
+		int numLng = Math.max(1, (int) Math.round(ne.getLng() / scale - sw.getLng() / scale));
 		
-		// I know it is not a good way to handle this case but maybe it works
-		// key is area id; value is set of venue id which is belong to this area
-		HashMap<String, Set<String>> venuesInArea = new HashMap<>();
-		
-		for (String vId : vInfo.keySet()) {
-			PointObject loc = vInfo.get(vId);
-			
-			// cell id of this venue
-			int i = (int) Math.floor((loc.getLat() - base_min_lat) / scale);
-			int j = (int) Math.floor((loc.getLng() - base_min_lng) / scale);
+		// cell id of each venue, key is cell id in the high bits and venue index in the low bits.
+		// Sorting them groups venues of the same cell together. All steps below run in parallel; each task writes
+		// its own venue or area only
+		long[] cellOfVenue = new long[n];
+		IntStream.range(0, n).parallel().forEach(vId -> {
+			PointObject loc = vInfo[vId];
 			
-			// area id of venue. Each venue is belong to only 1 area.
-			String areaIds = String.valueOf(i * numLng  + j );
+			// cell id of this venue. Venues on the north or east border are put in the last row or column
+			int i = Math.min(numLat - 1, Math.max(0, (int) Math.floor((loc.getLat() - base_min_lat) / scale)));
+			int j = Math.min(numLng - 1, Math.max(0, (int) Math.floor((loc.getLng() - base_min_lng) / scale)));
 			
-			Set<String> listOfVenues = venuesInArea.get(areaIds);
-			if (listOfVenues == null) {
-				listOfVenues = new HashSet<>();
-				venuesInArea.put(areaIds, listOfVenues);
-			}
-			listOfVenues.add(vId);
-		}
+			cellOfVenue[vId] = ((long) (i * numLng + j) << 32) | vId;
+		});
+		Arrays.parallelSort(cellOfVenue);
+		
+		// each non-empty cell is an area. Venues of area a are sortedVenues[areaStart[a]..areaStart[a + 1])
+		int[] sortedVenues = new int[n];
+		IntStream.range(0, n).parallel().forEach(p -> sortedVenues[p] = (int) cellOfVenue[p]);
+		int[] starts = IntStream.range(0, n).parallel()
+				.filter(p -> p == 0 || (cellOfVenue[p] >>> 32) != (cellOfVenue[p - 1] >>> 32))
+				.toArray();
+		int numAreas = starts.length;
+		int[] areaStart = Arrays.copyOf(starts, numAreas + 1);
+		areaStart[numAreas] = n;
+		int[] cells = new int[numAreas];
+		IntStream.range(0, numAreas).parallel().forEach(a -> cells[a] = (int) (cellOfVenue[areaStart[a]] >>> 32));
+		
+		// create area. Area id of venue: each venue is belong to only 1 area.
+		int[] areaIdOfVenue = new int[n];
+		AreaObject[] areas = new AreaObject[numAreas];
+		IntStream.range(0, numAreas).parallel().forEach(a -> {
+			int[] allVenueIds = Arrays.copyOfRange(sortedVenues, areaStart[a], areaStart[a + 1]);
+			for (int vId : allVenueIds)
+				areaIdOfVenue[vId] = a;
+			areas[a] = new AreaObject(String.valueOf(cells[a]), a, allVenueIds, cells[a] / numLng, cells[a] % numLng);
+		});
+		areaList.addAll(Arrays.asList(areas));
 		
 		// neighbors of a venue in this case are not only venues in the same box (area) with this venue but also 
 		// venues in surrounding boxes of box of this venue. For example, neighbors of venue in box 5 also contain
@@ -232,102 +192,174 @@ public class Utils {
 		// | 1 | 2 | 3 |
 		// | 4 | 5 | 6 |
 		// | 7 | 8 | 9 |
-		HashMap<String, Set<String>> neighbors = new HashMap<>();
-		HashMap<String, String> areaIdOfVenue = new HashMap<>();
-		for (int i = 0; i < numLat; i++ ) {
-			for (int j = 0; j < numLng; j++) {
-				String areaId = String.valueOf(i * numLng + j);
-								
-				Set<String> setOfVenues = venuesInArea.get(areaId);
-				if (setOfVenues != null) { // if there are no venues in this area, we dont care
-					for (String vId : setOfVenues) {
-						// assign area id to venue
-						areaIdOfVenue.put(vId, areaId);
-						
-						Set<String> subneighbors = new HashSet<>(setOfVenues);
-						subneighbors.remove(vId);
-						neighbors.put(vId, subneighbors);
-						
-						// list of surrounding areas
-						ArrayList<String> ns = Utils.getNeighborArea(i, j, numLat, numLng);
-						for (String n : ns) {
-							// add all venues in surrounding areas as neighbors of venue
-							Set<String> nes = venuesInArea.get(n);
-							if (nes != null)
-								subneighbors.addAll(nes);
-						}
-					}
+		// All venues of a box have the same neighbors (except themselves), so the list of venues in boxes 1 to 9
+		// is stored once for box 5 and shared by its venues
+		int[][] blocks = new int[numAreas][];
+		int[] offsets = new int[numAreas + 1];
+		IntStream.range(0, numAreas).parallel().forEach(a -> {
+			int i = cells[a] / numLng;
+			int j = cells[a] % numLng;
+			
+			// list of surrounding areas which have venues
+			int[] ns = Utils.getNeighborArea(i, j, numLat, numLng);
+			int[] block = new int[9];
+			int numBlock = 0;
+			block[numBlock++] = a;
+			int blockSize = areaStart[a + 1] - areaStart[a];
+			for (int c : ns) {
+				int na = Arrays.binarySearch(cells, 0, numAreas, c);
+				if (na >= 0) {
+					block[numBlock++] = na;
+					blockSize += areaStart[na + 1] - areaStart[na];
 				}
 			}
-		}
-		
-		// create venue map
-		HashMap<String, VenueObject> venueMap = new HashMap<>();
-		for (String venueId: vInfo.keySet()){
-			PointObject location = vInfo.get(venueId);
-			
-			Set<String> neighborIds = neighbors.get(venueId);
-
-			Integer numCks = countMap.get(venueId);
-			if (numCks == null)
-				numCks = 0;
-			
-			ArrayList<String> listOfUsers = userOfVenueMap.get(venueId);
-			
-			VenueObject vo = new VenueObject(venueId, numCks, location, neighborIds, listOfUsers, k);
-			
-			String areaId = areaIdOfVenue.get(venueId);
-			
-			vo.setAreaId(areaId);
-			
-			venueMap.put(venueId, vo);
-		}
+			blocks[a] = Arrays.copyOf(block, numBlock);
+			offsets[a + 1] = blockSize;
+		});
+		Arrays.parallelPrefix(offsets, Integer::sum);
 		
-		// create area
-		for (int i = 0; i < numLat; i++) {
-			for (int j = 0; j < numLng; j++) {
-				String areaId = String.valueOf(i * numLng + j);
-
-				Set<String> allVenueIds = venuesInArea.get(areaId);
-				if (allVenueIds == null) // if there is no venue in this area, ignore
-					continue;
-
-				AreaObject area = new AreaObject(areaId, allVenueIds);
-				areaMap.put(areaId, area);
+		int[] targets = new int[offsets[numAreas]];
+		IntStream.range(0, numAreas).parallel().forEach(a -> {
+			int m = offsets[a];
+			for (int na : blocks[a]) {
+				int len = areaStart[na + 1] - areaStart[na];
+				System.arraycopy(sortedVenues, areaStart[na], targets, m, len);
+				m += len;
 			}
-		}
+		});
 		
-		return venueMap;
+		return new NeighborGraph(areaIdOfVenue, offsets, targets, true);
 	} 
 	
-	public static ArrayList<String> getNeighborArea(int i, int j, int numLat, int numLng) {
-		ArrayList<String> result = new ArrayList<>();
+	/**
+	 * areas are leaves of an adaptive quadtree: cells are split until they have at most maxVenues venues, so dense
+	 * places get small areas and sparse places get big ones (see QuadtreePartitioner). Like the box neighborhood,
+	 * neighbors of a venue are the venues of its leaf and of the leaves which touch it, and the list is shared by all
+	 * venues of the leaf. Since the tree is balanced, a venue has less than 13 * maxVenues neighbors
+	 * @param vInfo				location of venues; vInfo[i] is location of venue i
+	 * @param areaList			list of areas which is filled by this function. Index of area is its position in list
+	 * @param maxVenues			maximum number of venues in one area
+	 * @return					neighbor graph of venues whose groups are areas
+	 */
+	public static NeighborGraph createNeighborsQuadtree(PointObject[] vInfo, ArrayList<AreaObject> areaList,
+			int maxVenues) {
+		int n = vInfo.length;
+		QuadtreePartitioner tree = new QuadtreePartitioner(vInfo, maxVenues);
+		
+		// non-empty leaves are areas, in Z-order
+		long[] leaves = Arrays.stream(tree.getLeaves()).filter(l -> tree.venuesOf(l).length > 0).toArray();
+		int numAreas = leaves.length;
+		HashMap<Long, Integer> areaOfLeaf = new HashMap<>();
+		for (int a = 0; a < numAreas; a++)
+			areaOfLeaf.put(leaves[a], a);
+		
+		int[] areaIdOfVenue = new int[n];
+		AreaObject[] areas = new AreaObject[numAreas];
+		IntStream.range(0, numAreas).parallel().forEach(a -> {
+			int[] allVenueIds = tree.venuesOf(leaves[a]);
+			for (int vId : allVenueIds)
+				areaIdOfVenue[vId] = a;
+			areas[a] = new AreaObject(QuadtreePartitioner.quadKey(leaves[a]), a, allVenueIds);
+		});
+		areaList.addAll(Arrays.asList(areas));
+		
+		// list of each area is its venues followed by venues of adjacent non-empty leaves
+		int[][] blocks = new int[numAreas][];
+		int[] offsets = new int[numAreas + 1];
+		IntStream.range(0, numAreas).parallel().forEach(a -> {
+			long[] adjacent = tree.adjacentLeaves(leaves[a]);
+			int[] block = new int[adjacent.length + 1];
+			int numBlock = 0;
+			block[numBlock++] = a;
+			int blockSize = areas[a].getVenueIds().length;
+			for (long leaf : adjacent) {
+				Integer na = areaOfLeaf.get(leaf);
+				if (na != null) {
+					block[numBlock++] = na;
+					blockSize += areas[na].getVenueIds().length;
+				}
+			}
+			blocks[a] = Arrays.copyOf(block, numBlock);
+			offsets[a + 1] = blockSize;
+		});
+		Arrays.parallelPrefix(offsets, Integer::sum);
+		
+		int[] targets = new int[offsets[numAreas]];
+		IntStream.range(0, numAreas).parallel().forEach(a -> {
+			int m = offsets[a];
+			for (int na : blocks[a]) {
+				int[] ids = areas[na].getVenueIds();
+				System.arraycopy(ids, 0, targets, m, ids.length);
+				m += ids.length;
+			}
+		});
+		
+		return new NeighborGraph(areaIdOfVenue, offsets, targets, true);
+	}
+	
+	/**
+	 * make venue objects. Area of each venue is taken from the list of venues of each area
+	 * @param vInfo				location of venues; vInfo[i] is location of venue i
+	 * @param venueDict			dictionary of venue ids
+	 * @param areas				all areas
+	 * @param checkins			check-in matrix; number of check-ins of each venue
+	 * @param venueFactors		factor matrix of venues and area sums
+	 * @return					array of venue objects indexed by venue index
+	 */
+	public static VenueObject[] createVenues(PointObject[] vInfo, IdDictionary venueDict, AreaObject[] areas, 
+			CheckinMatrix checkins, AreaFactorCache venueFactors) {
+		VenueObject[] result = new VenueObject[vInfo.length];
+		IntStream.range(0, vInfo.length).parallel().forEach(vId -> 
+			result[vId] = new VenueObject(venueDict.getId(vId), vId, checkins.totalCksOfVenue(vId), vInfo[vId], 
+					venueFactors));
+		// venues only write their own factor row, so sums of areas are computed once from all rows
+		venueFactors.rebuild();
+		
+		Arrays.stream(areas).parallel().forEach(ao -> {
+			for (int vId : ao.getVenueIds())
+				result[vId].setAreaId(ao.getIndex());
+		});
+		
+		return result;
+	}
+	
+	/**
+	 * 
+	 * @param i			row of cell
+	 * @param j			column of cell
+	 * @param numLat	number of rows
+	 * @param numLng	number of columns
+	 * @return			cell id of (up to 8) surrounding cells
+	 */
+	public static int[] getNeighborArea(int i, int j, int numLat, int numLng) {
+		int[] result = new int[8];
+		int n = 0;
 		
 		if ( i - 1 >= 0)
-			result.add(String.valueOf((i - 1) * numLng + j));
+			result[n++] = (i - 1) * numLng + j;
 		
 		if (j - 1 >= 0)
-			result.add(String.valueOf(i * numLng + j - 1));
+			result[n++] = i * numLng + j - 1;
 		
 		if (i + 1 < numLat) 
-			result.add(String.valueOf((i + 1) * numLng + j));
+			result[n++] = (i + 1) * numLng + j;
 		
 		if (j + 1 < numLng)
-			result.add(String.valueOf(i * numLng + j + 1));
+			result[n++] = i * numLng + j + 1;
 		
 		if (i - 1 >= 0 && j + 1 < numLng)
-			result.add(String.valueOf((i - 1) * numLng + j + 1));
+			result[n++] = (i - 1) * numLng + j + 1;
 		
 		if (i - 1 >= 0 && j - 1 >= 0)
-			result.add(String.valueOf((i - 1) * numLng + j - 1));
+			result[n++] = (i - 1) * numLng + j - 1;
 		
 		if (i + 1 < numLat && j - 1 >= 0)
-			result.add(String.valueOf((i + 1) * numLng + j - 1));
+			result[n++] = (i + 1) * numLng + j - 1;
 		
 		if (i + 1 < numLat && j + 1 < numLng)
-			result.add(String.valueOf((i + 1) * numLng + j + 1));
+			result[n++] = (i + 1) * numLng + j + 1;
 		
-		return result;
+		return Arrays.copyOf(result, n);
 	}
 	
 	/**
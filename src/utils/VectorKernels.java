@@ -0,0 +1,83 @@
+package utils;
+
+/**
+ * low level vector operations used by Function and FactorMatrix. Vectors are stored inside bigger arrays so every
+ * operation takes the array and the position of the vector in it. Implementation is chosen once at start up by the
+ * system property "kernels":
+ * 	-Dkernels=unrolled	(default) loops are unrolled with independent accumulators so the JIT can vectorize them
+ * 	-Dkernels=scalar	plain loops
+ * Unknown values fall back to scalar
+ * @author tndoan
+ *
+ */
+public interface VectorKernels {
+
+	/**
+	 *
+	 * @return	name of implementation
+	 */
+	String getName();
+
+	/**
+	 *
+	 * @param v1		array contains the first vector
+	 * @param off1		position of the first vector in v1
+	 * @param v2		array contains the second vector
+	 * @param off2		position of the second vector in v2
+	 * @param length	length of vectors
+	 * @return			inner product of two vectors
+	 */
+	double dot(double[] v1, int off1, double[] v2, int off2, int length);
+
+	/**
+	 * y = y + t * x
+	 * @param t			scalar value
+	 * @param x			array contains vector x
+	 * @param offX		position of x
+	 * @param y			array contains vector y which is updated in place
+	 * @param offY		position of y
+	 * @param length	length of vectors
+	 */
+	void axpy(double t, double[] x, int offX, double[] y, int offY, int length);
+
+	/**
+	 *
+	 * @param v1		array contains the first vector
+	 * @param off1		position of the first vector in v1
+	 * @param v2		array contains the second vector
+	 * @param off2		position of the second vector in v2
+	 * @param length	length of vectors
+	 * @return			square distance between two vectors
+	 */
+	double sqrDistance(double[] v1, int off1, double[] v2, int off2, int length);
+
+	/**
+	 * inner products of one vector with many rows of a row-major matrix, out[i] = x . row rows[i]
+	 * @param x		array contains vector x whose length is k
+	 * @param xOff	position of x
+	 * @param data	row-major matrix
+	 * @param k		length of each row
+	 * @param rows	index of rows
+	 * @param out	result; its length is at least rows.length
+	 */
+	void dotRows(double[] x, int xOff, double[] data, int k, int[] rows, double[] out);
+
+	/**
+	 * choose implementation from system property "kernels"
+	 * @return	implementation of kernels
+	 */
+	static VectorKernels create() {
+		return create(System.getProperty("kernels", "unrolled"));
+	}
+
+	/**
+	 *
+	 * @param name	"unrolled" or "scalar"
+	 * @return		implementation of kernels. Scalar one if name is unknown
+	 */
+	static VectorKernels create(String name) {
+		if ("unrolled".equals(name))
+			return new UnrolledKernels();
+		return new ScalarKernels();
+	}
+}
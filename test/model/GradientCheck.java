@@ -0,0 +1,142 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Random;
+
+import object.FactorMatrix;
+
+/**
+ * finite difference check of Model.fusedGrad against calculateParallelLLH on a small random data set. Each
+ * coordinate of user and venue factors is moved by +-H and the central difference of log likelihood is compared with
+ * the gradient. Cases cover steepness other than 2, asymmetric friend lists and asymmetric (nearest) neighbors.
+ * Run with
+ * 	java -cp bin:lib/commons-math3-3.5.jar model.GradientCheck
+ * It exits with status 1 if a coordinate does not match
+ * @author tndoan
+ *
+ */
+public class GradientCheck {
+
+	private static final double H = 1e-6;
+
+	private static final double TOLERANCE = 1e-4;
+
+	private static final int NUM_VENUES = 40;
+
+	private static final int NUM_USERS = 15;
+
+	public static void main(String[] args) throws IOException {
+		File dir = Files.createTempDirectory("gradient-check").toFile();
+		writeData(dir, new Random(7));
+
+		int failures = 0;
+		failures += check(dir, "box, steepness 1", Neighborhood.box(0.01), 1.0, true);
+		failures += check(dir, "nearest, steepness 2", Neighborhood.nearest(0.01, 3), 2.0, true);
+		failures += check(dir, "radius, steepness 3", Neighborhood.radius(0.01, 800.0), 3.0, false);
+
+		if (failures > 0) {
+			System.out.println(failures + " coordinates do not match");
+			System.exit(1);
+		}
+		System.out.println("gradient check passed");
+	}
+
+	/**
+	 * write venues in a small region, random check-ins and random (not symmetric) friend lists
+	 * @param dir	directory of files
+	 * @param rand	random generator
+	 */
+	private static void writeData(File dir, Random rand) throws IOException {
+		try (PrintWriter w = new PrintWriter(new File(dir, "venues"))) {
+			for (int v = 0; v < NUM_VENUES; v++)
+				w.println("v" + v + " " + (10.70 + 0.03 * rand.nextDouble()) + "," + (106.60 + 0.03 * rand.nextDouble()));
+		}
+		try (PrintWriter w = new PrintWriter(new File(dir, "cks"))) {
+			for (int u = 0; u < NUM_USERS; u++) {
+				StringBuilder sb = new StringBuilder("u" + u);
+				int n = 3 + rand.nextInt(6);
+				for (int i = 0; i < n; i++)
+					sb.append(" v" + rand.nextInt(NUM_VENUES) + ":" + (1 + rand.nextInt(5)));
+				w.println(sb);
+			}
+		}
+		try (PrintWriter w = new PrintWriter(new File(dir, "friends"))) {
+			for (int u = 0; u < NUM_USERS; u++) {
+				StringBuilder sb = new StringBuilder("u" + u);
+				int n = rand.nextInt(4);
+				for (int i = 0; i < n; i++) {
+					int f = rand.nextInt(NUM_USERS);
+					if (f != u)
+						sb.append(" u" + f);
+				}
+				w.println(sb);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return	number of coordinates whose gradient does not match the finite difference
+	 */
+	private static int check(File dir, String name, Neighborhood neighborhood, double steepness, boolean isFriend) {
+		Model m = new Model(null, new File(dir, "venues").getPath(), new File(dir, "cks").getPath(),
+				new File(dir, "friends").getPath(), 4, neighborhood, isFriend, steepness, new Parameters(0.1, 0.1, 0.5));
+		Random rand = new Random(11);
+		double[] uData = m.userFactors.getData();
+		double[] vData = m.venueFactors.getData();
+		for (int i = 0; i < uData.length; i++)
+			uData[i] = 0.1 + rand.nextDouble();
+		for (int i = 0; i < vData.length; i++)
+			vData[i] = 0.1 + rand.nextDouble();
+		m.areaFactors.rebuild();
+
+		FactorMatrix uGrad = new FactorMatrix(m.users.length, m.k);
+		FactorMatrix vGrad = new FactorMatrix(m.venues.length, m.k);
+		FactorMatrix[] partials = {new FactorMatrix(m.venues.length + m.areas.length, m.k)};
+		double llh = m.fusedGrad(uGrad, vGrad, partials, true);
+
+		int failures = 0;
+		double full = m.calculateParallelLLH();
+		if (Math.abs(llh - full) > 1e-9 * Math.max(1.0, Math.abs(full))) {
+			System.out.println(name + ": log likelihood " + llh + " vs " + full);
+			failures++;
+		}
+		failures += compare(m, name + ", user", uData, uGrad.getData());
+		failures += compare(m, name + ", venue", vData, vGrad.getData());
+		System.out.println(name + ": " + failures + " mismatches");
+		return failures;
+	}
+
+	/**
+	 * compare each coordinate of grad with the central difference of log likelihood
+	 * @param m			model
+	 * @param name		name of case
+	 * @param data		factors which are moved
+	 * @param grad		gradient of factors
+	 * @return			number of coordinates which do not match
+	 */
+	private static int compare(Model m, String name, double[] data, double[] grad) {
+		int failures = 0;
+		for (int i = 0; i < data.length; i++) {
+			double x = data[i];
+			data[i] = x + H;
+			m.areaFactors.rebuild();
+			double up = m.calculateParallelLLH();
+			data[i] = x - H;
+			m.areaFactors.rebuild();
+			double down = m.calculateParallelLLH();
+			data[i] = x;
+			m.areaFactors.rebuild();
+
+			double numeric = (up - down) / (2 * H);
+			if (Math.abs(numeric - grad[i]) > TOLERANCE * Math.max(1.0, Math.abs(numeric))) {
+				System.out.println(name + " " + i + ": " + grad[i] + " vs " + numeric);
+				failures++;
+			}
+		}
+		return failures;
+	}
+}